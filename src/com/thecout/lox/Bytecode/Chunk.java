@@ -0,0 +1,59 @@
+package com.thecout.lox.Bytecode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Code of one function: instruction bytes, the source line of every byte and the constant pool.
+ */
+final class Chunk {
+    byte[] code = new byte[64];
+    int[] lines = new int[64];
+    int size = 0;
+    Object[] constants;
+
+    private final List<Object> pool = new ArrayList<>();
+    private final Map<Object, Integer> poolIndex = new HashMap<>();
+
+    void write(int b, int line) {
+        if (size == code.length) {
+            code = Arrays.copyOf(code, size * 2);
+            lines = Arrays.copyOf(lines, size * 2);
+        }
+        code[size] = (byte) b;
+        lines[size++] = line;
+    }
+
+    void writeShort(int value, int line) {
+        write(value >> 8, line);
+        write(value, line);
+    }
+
+    void patchShort(int at, int value) {
+        code[at] = (byte) (value >> 8);
+        code[at + 1] = (byte) value;
+    }
+
+    /**
+     * @return the pool index of value, numbers and strings are only stored once
+     */
+    int constant(Object value) {
+        if (value instanceof Double || value instanceof String)
+            return poolIndex.computeIfAbsent(value, v -> add(v));
+        return add(value);
+    }
+
+    private int add(Object value) {
+        pool.add(value);
+        return pool.size() - 1;
+    }
+
+    void finish() {
+        code = Arrays.copyOf(code, size);
+        lines = Arrays.copyOf(lines, size);
+        constants = pool.toArray();
+    }
+}
@@ -0,0 +1,19 @@
+package com.thecout.lox.Bytecode;
+
+/**
+ * Function value of the VM: a compiled function and the variables it captured.
+ */
+final class Closure {
+    final VmFunction function;
+    final Upvalue[] upvalues;
+
+    Closure(VmFunction function) {
+        this.function = function;
+        this.upvalues = new Upvalue[function.upvalueCount];
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+}
@@ -0,0 +1,485 @@
+package com.thecout.lox.Bytecode;
+
+import com.thecout.lox.Parser.Expr.*;
+import com.thecout.lox.Parser.Stmts.*;
+import com.thecout.lox.Token;
+import com.thecout.lox.Traversal.InterpreterUtils.RuntimeError;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.thecout.lox.Bytecode.OpCode.*;
+
+/**
+ * Translates statements into {@link Chunk}s for the {@link VM}. Scopes are resolved here as well:
+ * locals of a function live in its stack frame, variables that inner functions use are reached
+ * through upvalues and everything declared outside of any block or function is a global with a fixed index.
+ */
+class Compiler implements ExprVisitor<Void>, StmtVisitor<Void> {
+    private static final int MAX_OPERAND = 0xFFFF;
+
+    private final Map<String, Integer> globals;
+    private FunctionState current;
+    // line of the closest node with a token, for the nodes without one like literals, calls and most statements
+    private int line = 0;
+
+    private static class Local {
+        final String name;
+        final int depth;
+        boolean captured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final String name;
+        final Chunk chunk = new Chunk();
+        // slot 0 holds the callee
+        final List<Local> locals = new ArrayList<>(List.of(new Local("", 0)));
+        // pairs of (1 if local of the enclosing function else 0, index)
+        final List<int[]> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+        int stackDepth = 1;
+        int maxStack = 1;
+
+        FunctionState(FunctionState enclosing, String name) {
+            this.enclosing = enclosing;
+            this.name = name;
+        }
+    }
+
+    /**
+     * @param globals name to index of every global the VM knows, new globals are added to it
+     */
+    Compiler(Map<String, Integer> globals) {
+        this.globals = globals;
+    }
+
+    /**
+     * Compiles one top level statement into a function without parameters.
+     */
+    VmFunction compile(Stmt stmt) {
+        current = new FunctionState(null, "script");
+        stmt.accept(this);
+        emit(NIL, 1, line);
+        emit(RETURN, -1, line);
+        return finish(0);
+    }
+
+    private VmFunction finish(int arity) {
+        FunctionState state = current;
+        state.chunk.finish();
+        current = state.enclosing;
+        return new VmFunction(state.name, arity, state.chunk, state.upvalues.size(), state.maxStack);
+    }
+
+
+    private void emit(byte op, int stackEffect, int line) {
+        current.chunk.write(op, line);
+        adjustStack(stackEffect);
+    }
+
+    private void emit(byte op, int operand, int stackEffect, int line) {
+        if (operand > MAX_OPERAND)
+            throw new RuntimeError(null, "Too many constants, globals or locals in one function.");
+        current.chunk.write(op, line);
+        current.chunk.writeShort(operand, line);
+        adjustStack(stackEffect);
+    }
+
+    private void adjustStack(int stackEffect) {
+        current.stackDepth += stackEffect;
+        current.maxStack = Math.max(current.maxStack, current.stackDepth);
+    }
+
+    // returns the position of the offset to patch
+    private int emitJump(byte op, int stackEffect, int line) {
+        emit(op, 0, stackEffect, line);
+        return current.chunk.size - 2;
+    }
+
+    private void patchJump(int at) {
+        int offset = current.chunk.size - at - 2;
+        if (offset > MAX_OPERAND)
+            throw new RuntimeError(null, "Too much code to jump over.");
+        current.chunk.patchShort(at, offset);
+    }
+
+    private void emitLoop(int start, int line) {
+        // the offset is counted from behind the operand
+        emit(LOOP, current.chunk.size - start + 3, 0, line);
+    }
+
+    private void compile(Expr expr, int line) {
+        this.line = line;
+        if (expr == null)
+            emit(NIL, 1, line);
+        else
+            expr.accept(this);
+    }
+
+    // line expr starts on, the current line if it has no token of its own
+    private int lineOf(Expr expr) {
+        int line = firstLine(expr);
+        return line >= 0 ? line : this.line;
+    }
+
+    // -1 if expr has no token, like a literal
+    private static int firstLine(Expr expr) {
+        if (expr instanceof Variable)
+            return ((Variable) expr).name.line;
+        if (expr instanceof Assign)
+            return ((Assign) expr).name.line;
+        if (expr instanceof Unary)
+            return ((Unary) expr).operator.line;
+        if (expr instanceof Binary) {
+            int left = firstLine(((Binary) expr).left);
+            return left >= 0 ? left : ((Binary) expr).operator.line;
+        }
+        if (expr instanceof Logical) {
+            int left = firstLine(((Logical) expr).left);
+            return left >= 0 ? left : ((Logical) expr).operator.line;
+        }
+        if (expr instanceof Call)
+            return firstLine(((Call) expr).callee);
+        if (expr instanceof Grouping)
+            return firstLine(((Grouping) expr).expression);
+        return -1;
+    }
+
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope(int line) {
+        current.scopeDepth--;
+        List<Local> locals = current.locals;
+        while (locals.size() > 1 && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            emit(locals.remove(locals.size() - 1).captured ? CLOSE_UPVALUE : POP, -1, line);
+        }
+    }
+
+    private static int resolveLocal(FunctionState state, String name) {
+        for (int i = state.locals.size() - 1; i > 0; i--) {
+            if (state.locals.get(i).name.equals(name))
+                return i;
+        }
+        return -1;
+    }
+
+    private static int resolveUpvalue(FunctionState state, String name) {
+        if (state.enclosing == null)
+            return -1;
+
+        int local = resolveLocal(state.enclosing, name);
+        if (local >= 0) {
+            state.enclosing.locals.get(local).captured = true;
+            return addUpvalue(state, 1, local);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if (upvalue >= 0)
+            return addUpvalue(state, 0, upvalue);
+        return -1;
+    }
+
+    private static int addUpvalue(FunctionState state, int isLocal, int index) {
+        for (int i = 0; i < state.upvalues.size(); i++) {
+            int[] upvalue = state.upvalues.get(i);
+            if (upvalue[0] == isLocal && upvalue[1] == index)
+                return i;
+        }
+        state.upvalues.add(new int[]{isLocal, index});
+        return state.upvalues.size() - 1;
+    }
+
+    private int global(String name) {
+        return globals.computeIfAbsent(name, n -> globals.size());
+    }
+
+    private void getVariable(Token name) {
+        int slot = resolveLocal(current, name.lexeme);
+        if (slot >= 0) {
+            emit(GET_LOCAL, slot, 1, name.line);
+            return;
+        }
+        int upvalue = resolveUpvalue(current, name.lexeme);
+        if (upvalue >= 0)
+            emit(GET_UPVALUE, upvalue, 1, name.line);
+        else
+            emit(GET_GLOBAL, global(name.lexeme), 1, name.line);
+    }
+
+    private void setVariable(Token name) {
+        int slot = resolveLocal(current, name.lexeme);
+        if (slot >= 0) {
+            emit(SET_LOCAL, slot, 0, name.line);
+            return;
+        }
+        int upvalue = resolveUpvalue(current, name.lexeme);
+        if (upvalue >= 0)
+            emit(SET_UPVALUE, upvalue, 0, name.line);
+        else
+            emit(SET_GLOBAL, global(name.lexeme), 0, name.line);
+    }
+
+    /**
+     * Binds the value on top of the stack to name in the current scope.
+     */
+    private void define(Token name) {
+        if (current.scopeDepth == 0) {
+            emit(DEFINE_GLOBAL, global(name.lexeme), -1, name.line);
+            return;
+        }
+        // redeclaring a name in the same scope reuses its slot, like the Resolver does
+        int slot = resolveLocal(current, name.lexeme);
+        if (slot >= 0 && current.locals.get(slot).depth == current.scopeDepth) {
+            emit(SET_LOCAL, slot, 0, name.line);
+            emit(POP, -1, name.line);
+            return;
+        }
+        current.locals.add(new Local(name.lexeme, current.scopeDepth));
+    }
+
+
+    @Override
+    public Void visitAssignExpr(Assign expr) {
+        compile(expr.value, expr.name.line);
+        setVariable(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Binary expr) {
+        compile(expr.left, expr.operator.line);
+        compile(expr.right, expr.operator.line);
+        byte op = switch (expr.operator.type) {
+            case BANG_EQUAL -> NOT_EQUAL;
+            case EQUAL_EQUAL -> EQUAL;
+            case GREATER -> GREATER;
+            case GREATER_EQUAL -> GREATER_EQUAL;
+            case LESS -> LESS;
+            case LESS_EQUAL -> LESS_EQUAL;
+            case PLUS -> ADD;
+            case MINUS -> SUBTRACT;
+            case STAR -> MULTIPLY;
+            case SLASH -> DIVIDE;
+            default -> throw new RuntimeError(expr.operator, "Unknown binary operator.");
+        };
+        emit(op, -1, expr.operator.line);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Call expr) {
+        call(expr, CALL);
+        return null;
+    }
+
+    // op is CALL or TAIL_CALL
+    private void call(Call expr, byte op) {
+        int line = lineOf(expr.callee);
+        compile(expr.callee, line);
+        if (expr.arguments.isEmpty()) {
+            emit(op, 0, 0, line);
+            return;
+        }
+
+        // like the interpreter, arguments are only evaluated if there is something to call
+        int skip = emitJump(SKIP_UNLESS_CALLABLE, 0, line);
+        for (Expr argument : expr.arguments)
+            compile(argument, line);
+        emit(op, expr.arguments.size(), -expr.arguments.size(), line);
+        patchJump(skip);
+    }
+
+    @Override
+    public Void visitGroupingExpr(Grouping expr) {
+        compile(expr.expression, line);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Literal expr) {
+        if (expr.value == null)
+            emit(NIL, 1, line);
+        else if (expr.value == Boolean.TRUE)
+            emit(TRUE, 1, line);
+        else if (expr.value == Boolean.FALSE)
+            emit(FALSE, 1, line);
+        else
+            emit(CONSTANT, current.chunk.constant(expr.value), 1, line);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Logical expr) {
+        compile(expr.left, expr.operator.line);
+        int end = emitJump(switch (expr.operator.type) {
+            case OR -> JUMP_IF_TRUE_OR_POP;
+            case AND -> JUMP_IF_FALSE_OR_POP;
+            default -> throw new RuntimeError(expr.operator, "Unknown logical operator.");
+        }, -1, expr.operator.line);
+        compile(expr.right, expr.operator.line);
+        patchJump(end);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Unary expr) {
+        compile(expr.right, expr.operator.line);
+        switch (expr.operator.type) {
+            case BANG -> emit(NOT, 0, expr.operator.line);
+            case MINUS -> emit(NEGATE, 0, expr.operator.line);
+            default -> throw new RuntimeError(expr.operator, "Unknown unary operator.");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Variable expr) {
+        getVariable(expr.name);
+        return null;
+    }
+
+
+    @Override
+    public Void visitBlockStmt(Block stmt) {
+        beginScope();
+        declareFunctions(stmt.statements);
+        for (Stmt statement : stmt.statements)
+            statement.accept(this);
+        endScope(line);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Expression stmt) {
+        if (stmt.expression == null)
+            return null;
+        int line = lineOf(stmt.expression);
+        compile(stmt.expression, line);
+        emit(POP, -1, line);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Function stmt) {
+        int line = this.line = stmt.name.line;
+        // a local function is declared before its body so it can call itself,
+        // one declared by declareFunctions is only assigned by define
+        boolean local = current.scopeDepth > 0 && resolveLocalInScope(stmt.name.lexeme) < 0;
+        if (local)
+            current.locals.add(new Local(stmt.name.lexeme, current.scopeDepth));
+
+        current = new FunctionState(current, stmt.name.lexeme);
+        current.scopeDepth = 1;
+        for (Token parameter : stmt.parameters) {
+            current.locals.add(new Local(parameter.lexeme, 1));
+            adjustStack(1);
+        }
+        declareFunctions(stmt.body);
+        for (Stmt statement : stmt.body)
+            statement.accept(this);
+        emit(NIL, 1, line);
+        emit(RETURN, -1, line);
+        List<int[]> upvalues = current.upvalues;
+        VmFunction function = finish(stmt.parameters.size());
+        this.line = line;
+
+        emit(CLOSURE, current.chunk.constant(function), 1, line);
+        for (int[] upvalue : upvalues) {
+            current.chunk.writeShort(upvalue[0], line);
+            current.chunk.writeShort(upvalue[1], line);
+        }
+
+        if (!local)
+            define(stmt.name);
+        return null;
+    }
+
+    /**
+     * Reserves a nil slot for every local function of statements before any of them is compiled,
+     * so a function can capture the ones declared after it, like the Resolver does for the interpreter.
+     */
+    private void declareFunctions(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (!(statement instanceof Function))
+                continue;
+            Token name = ((Function) statement).name;
+            if (resolveLocalInScope(name.lexeme) < 0) {
+                emit(NIL, 1, name.line);
+                current.locals.add(new Local(name.lexeme, current.scopeDepth));
+            }
+        }
+    }
+
+    private int resolveLocalInScope(String name) {
+        int slot = resolveLocal(current, name);
+        return slot >= 0 && current.locals.get(slot).depth == current.scopeDepth ? slot : -1;
+    }
+
+    @Override
+    public Void visitIfStmt(If stmt) {
+        int line = lineOf(stmt.condition);
+        compile(stmt.condition, line);
+        int otherwise = emitJump(JUMP_IF_FALSE, -1, line);
+        stmt.thenBranch.accept(this);
+        if (stmt.elseBranch == null) {
+            patchJump(otherwise);
+            return null;
+        }
+        int end = emitJump(JUMP, 0, line);
+        patchJump(otherwise);
+        stmt.elseBranch.accept(this);
+        patchJump(end);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Print stmt) {
+        int line = lineOf(stmt.expression);
+        compile(stmt.expression, line);
+        emit(PRINT, -1, line);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Return stmt) {
+        int line = lineOf(stmt.value);
+        // a call in tail position of a function reuses the frame, the script keeps its own
+        if (stmt.value instanceof Call && current.enclosing != null)
+            call((Call) stmt.value, TAIL_CALL);
+        else
+            compile(stmt.value, line);
+        // a return outside of a function ends the script, not only its statement
+        emit(current.enclosing != null ? RETURN : HALT, -1, line);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Var stmt) {
+        // the initializer still sees an outer variable of the same name
+        compile(stmt.initializer, stmt.name.line);
+        define(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(While stmt) {
+        int start = current.chunk.size;
+        int line = lineOf(stmt.condition);
+        compile(stmt.condition, line);
+        int exit = emitJump(JUMP_IF_FALSE, -1, line);
+        stmt.body.accept(this);
+        emitLoop(start, line);
+        patchJump(exit);
+        return null;
+    }
+}
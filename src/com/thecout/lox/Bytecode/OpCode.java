@@ -0,0 +1,51 @@
+package com.thecout.lox.Bytecode;
+
+/**
+ * Instruction set of the {@link VM}. Every instruction is one opcode byte followed by
+ * its operands, each an unsigned 16 bit big endian value.
+ */
+final class OpCode {
+    private OpCode() {
+    }
+
+    static final byte CONSTANT = 0;         // k: push constants[k]
+    static final byte NIL = 1;
+    static final byte TRUE = 2;
+    static final byte FALSE = 3;
+    static final byte POP = 4;
+
+    static final byte GET_LOCAL = 5;        // slot, relative to the frame base
+    static final byte SET_LOCAL = 6;        // slot, keeps the value on the stack
+    static final byte GET_GLOBAL = 7;       // global index
+    static final byte SET_GLOBAL = 8;       // global index, keeps the value on the stack
+    static final byte DEFINE_GLOBAL = 9;    // global index, pops the value
+    static final byte GET_UPVALUE = 10;     // upvalue index of the running closure
+    static final byte SET_UPVALUE = 11;     // upvalue index, keeps the value on the stack
+
+    static final byte EQUAL = 12;
+    static final byte NOT_EQUAL = 13;
+    static final byte GREATER = 14;
+    static final byte GREATER_EQUAL = 15;
+    static final byte LESS = 16;
+    static final byte LESS_EQUAL = 17;
+    static final byte ADD = 18;
+    static final byte SUBTRACT = 19;
+    static final byte MULTIPLY = 20;
+    static final byte DIVIDE = 21;
+    static final byte NOT = 22;
+    static final byte NEGATE = 23;
+
+    static final byte PRINT = 24;
+    static final byte JUMP = 25;                 // offset forward
+    static final byte JUMP_IF_FALSE = 26;        // offset forward, pops the condition
+    static final byte JUMP_IF_FALSE_OR_POP = 27; // offset forward, keeps the condition if it jumps
+    static final byte JUMP_IF_TRUE_OR_POP = 28;  // offset forward, keeps the condition if it jumps
+    static final byte LOOP = 29;                 // offset backward
+    static final byte SKIP_UNLESS_CALLABLE = 30; // offset forward, jumps over the arguments and CALL
+    static final byte CALL = 31;                 // argument count
+    static final byte CLOSURE = 32;              // k, then per upvalue: 1 if it is a local of the enclosing frame, index
+    static final byte CLOSE_UPVALUE = 33;
+    static final byte RETURN = 34;
+    static final byte TAIL_CALL = 35;            // argument count, like CALL but a closure replaces the running frame
+    static final byte HALT = 36;                 // like RETURN from a script, but the statements after it do not run
+}
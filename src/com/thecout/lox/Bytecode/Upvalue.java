@@ -0,0 +1,18 @@
+package com.thecout.lox.Bytecode;
+
+/**
+ * A captured variable. While the declaring frame is alive it points at the variable's stack slot,
+ * when the variable goes out of scope the value moves into the upvalue itself.
+ */
+final class Upvalue {
+    // absolute stack index, -1 once closed
+    int slot;
+    Object value;
+    // next open upvalue, ordered by descending slot
+    Upvalue next;
+
+    Upvalue(int slot, Upvalue next) {
+        this.slot = slot;
+        this.next = next;
+    }
+}
@@ -0,0 +1,422 @@
+package com.thecout.lox.Bytecode;
+
+import com.thecout.lox.Optimizer.Optimizer;
+import com.thecout.lox.Parser.Stmts.Stmt;
+import com.thecout.lox.Token;
+import com.thecout.lox.TokenType;
+import com.thecout.lox.Traversal.Interpreter;
+import com.thecout.lox.Traversal.InterpreterUtils.Clock;
+import com.thecout.lox.Traversal.InterpreterUtils.LoxCallable;
+import com.thecout.lox.Traversal.InterpreterUtils.RuntimeError;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static com.thecout.lox.Bytecode.OpCode.*;
+
+/**
+ * Bytecode backend, an alternative to the tree walking {@link Interpreter} with the same semantics.
+ * Statements are compiled one top level statement at a time and run by a single switch loop.
+ * Call frames and the value stack live on the heap, so Lox calls do not nest Java calls.
+ */
+public class VM {
+    private static final Object UNDEFINED = new Object();
+    // what run returns if the script ran into a return outside of a function
+    private static final Object HALTED = new Object();
+
+    private final Map<String, Integer> globalIndex = new HashMap<>();
+    private Object[] globals = new Object[16];
+
+    private Object[] stack = new Object[256];
+
+    private Frame[] frames = new Frame[64];
+    private int frameCount = 0;
+    private Upvalue openUpvalues = null;
+    // see Interpreter
+    private boolean optimize = Boolean.getBoolean("lox.optimize");
+
+    private static final class Frame {
+        Closure closure;
+        int ip;
+        int base;
+    }
+
+    public VM() {
+        Arrays.fill(globals, UNDEFINED);
+        define("clock", new Clock());
+    }
+
+    public void define(String name, Object value) {
+        int index = globalIndex.computeIfAbsent(name, n -> globalIndex.size());
+        ensureGlobals();
+        globals[index] = value;
+    }
+
+    public void setOptimize(boolean optimize) {
+        this.optimize = optimize;
+    }
+
+    public void interpret(List<Stmt> statements) {
+        if (optimize)
+            statements = Optimizer.optimize(statements);
+        Compiler compiler = new Compiler(globalIndex);
+        try {
+            for (Stmt statement : statements) {
+                VmFunction script = compiler.compile(statement);
+                ensureGlobals();
+                if (run(new Closure(script)) == HALTED)
+                    break;
+            }
+        } catch (RuntimeError error) {
+            error.printStackTrace();
+        } finally {
+            Arrays.fill(stack, null);
+            frameCount = 0;
+            openUpvalues = null;
+        }
+    }
+
+    private void ensureGlobals() {
+        if (globals.length < globalIndex.size()) {
+            int old = globals.length;
+            globals = Arrays.copyOf(globals, Math.max(old * 2, globalIndex.size()));
+            Arrays.fill(globals, old, globals.length, UNDEFINED);
+        }
+    }
+
+    private static int u16(byte[] code, int at) {
+        return (code[at] & 0xff) << 8 | code[at + 1] & 0xff;
+    }
+
+    // every top level statement starts on an empty stack
+    private Object run(Closure script) {
+        int sp = 0;
+        stack[sp++] = script;
+        int entry = frameCount;
+        Frame frame = pushFrame(script, sp - 1);
+
+        Closure closure = script;
+        byte[] code = script.function.chunk.code;
+        Object[] constants = script.function.chunk.constants;
+        int ip = 0;
+        int base = frame.base;
+        ensureStack(base + script.function.maxStack);
+
+        Object[] stack = this.stack;
+        Object[] globals = this.globals;
+
+        for (; ; ) {
+            byte op = code[ip++];
+            switch (op) {
+                case CONSTANT -> {
+                    stack[sp++] = constants[u16(code, ip)];
+                    ip += 2;
+                }
+                case NIL -> stack[sp++] = null;
+                case TRUE -> stack[sp++] = true;
+                case FALSE -> stack[sp++] = false;
+                case POP -> sp--;
+
+                case GET_LOCAL -> {
+                    stack[sp++] = stack[base + u16(code, ip)];
+                    ip += 2;
+                }
+                case SET_LOCAL -> {
+                    stack[base + u16(code, ip)] = stack[sp - 1];
+                    ip += 2;
+                }
+                case GET_GLOBAL -> {
+                    int index = u16(code, ip);
+                    Object value = globals[index];
+                    if (value == UNDEFINED)
+                        throw undefined(closure, ip, index);
+                    stack[sp++] = value;
+                    ip += 2;
+                }
+                case SET_GLOBAL -> {
+                    int index = u16(code, ip);
+                    if (globals[index] == UNDEFINED)
+                        throw undefined(closure, ip, index);
+                    globals[index] = stack[sp - 1];
+                    ip += 2;
+                }
+                case DEFINE_GLOBAL -> {
+                    globals[u16(code, ip)] = stack[--sp];
+                    ip += 2;
+                }
+                case GET_UPVALUE -> {
+                    Upvalue upvalue = closure.upvalues[u16(code, ip)];
+                    stack[sp++] = upvalue.slot >= 0 ? stack[upvalue.slot] : upvalue.value;
+                    ip += 2;
+                }
+                case SET_UPVALUE -> {
+                    Upvalue upvalue = closure.upvalues[u16(code, ip)];
+                    if (upvalue.slot >= 0)
+                        stack[upvalue.slot] = stack[sp - 1];
+                    else
+                        upvalue.value = stack[sp - 1];
+                    ip += 2;
+                }
+
+                case EQUAL -> {
+                    sp--;
+                    stack[sp - 1] = Objects.equals(stack[sp - 1], stack[sp]);
+                }
+                case NOT_EQUAL -> {
+                    sp--;
+                    stack[sp - 1] = !Objects.equals(stack[sp - 1], stack[sp]);
+                }
+                case GREATER -> {
+                    sp--;
+                    stack[sp - 1] = (double) stack[sp - 1] > (double) stack[sp];
+                }
+                case GREATER_EQUAL -> {
+                    sp--;
+                    stack[sp - 1] = (double) stack[sp - 1] >= (double) stack[sp];
+                }
+                case LESS -> {
+                    sp--;
+                    stack[sp - 1] = (double) stack[sp - 1] < (double) stack[sp];
+                }
+                case LESS_EQUAL -> {
+                    sp--;
+                    stack[sp - 1] = (double) stack[sp - 1] <= (double) stack[sp];
+                }
+                case ADD -> {
+                    sp--;
+                    Object left = stack[sp - 1];
+                    if (left instanceof String)
+                        stack[sp - 1] = (String) left + (String) stack[sp];
+                    else
+                        stack[sp - 1] = (double) left + (double) stack[sp];
+                }
+                case SUBTRACT -> {
+                    sp--;
+                    stack[sp - 1] = (double) stack[sp - 1] - (double) stack[sp];
+                }
+                case MULTIPLY -> {
+                    sp--;
+                    stack[sp - 1] = (double) stack[sp - 1] * (double) stack[sp];
+                }
+                case DIVIDE -> {
+                    sp--;
+                    stack[sp - 1] = (double) stack[sp - 1] / (double) stack[sp];
+                }
+                case NOT -> stack[sp - 1] = !(boolean) stack[sp - 1];
+                case NEGATE -> stack[sp - 1] = -(double) stack[sp - 1];
+
+                case PRINT -> System.out.println(Interpreter.stringify(stack[--sp]));
+                case JUMP -> ip += 2 + u16(code, ip);
+                case JUMP_IF_FALSE -> {
+                    if ((boolean) stack[--sp])
+                        ip += 2;
+                    else
+                        ip += 2 + u16(code, ip);
+                }
+                case JUMP_IF_FALSE_OR_POP -> {
+                    if ((boolean) stack[sp - 1]) {
+                        sp--;
+                        ip += 2;
+                    } else {
+                        ip += 2 + u16(code, ip);
+                    }
+                }
+                case JUMP_IF_TRUE_OR_POP -> {
+                    if ((boolean) stack[sp - 1]) {
+                        ip += 2 + u16(code, ip);
+                    } else {
+                        sp--;
+                        ip += 2;
+                    }
+                }
+                case LOOP -> ip -= u16(code, ip) - 2;
+                case SKIP_UNLESS_CALLABLE -> {
+                    Object callee = stack[sp - 1];
+                    if (callee instanceof Closure || callee instanceof LoxCallable)
+                        ip += 2;
+                    else
+                        ip += 2 + u16(code, ip);
+                }
+                case CALL -> {
+                    int argc = u16(code, ip);
+                    ip += 2;
+                    Object callee = stack[sp - argc - 1];
+
+                    if (callee instanceof Closure) {
+                        Closure target = (Closure) callee;
+                        VmFunction function = target.function;
+                        if (argc < function.arity)
+                            throw arityError(function, argc);
+                        // the interpreter ignores surplus arguments as well
+                        sp -= argc - function.arity;
+
+                        frame.ip = ip;
+                        frame = pushFrame(target, sp - function.arity - 1);
+                        closure = target;
+                        code = function.chunk.code;
+                        constants = function.chunk.constants;
+                        ip = 0;
+                        base = frame.base;
+                        if (ensureStack(base + function.maxStack))
+                            stack = this.stack;
+                    } else if (callee instanceof LoxCallable) {
+                        sp -= argc;
+                        stack[sp - 1] = callNative((LoxCallable) callee, sp, argc);
+                    } else {
+                        // not a function, the call is just the value itself
+                        sp -= argc;
+                    }
+                }
+                case TAIL_CALL -> {
+                    int argc = u16(code, ip);
+                    ip += 2;
+                    Object callee = stack[sp - argc - 1];
+
+                    if (callee instanceof Closure) {
+                        Closure target = (Closure) callee;
+                        VmFunction function = target.function;
+                        if (argc < function.arity)
+                            throw arityError(function, argc);
+
+                        // the callee and its arguments replace the running frame, nothing of it is needed any more
+                        closeUpvalues(base);
+                        System.arraycopy(stack, sp - argc - 1, stack, base, function.arity + 1);
+                        sp = base + function.arity + 1;
+
+                        frame.closure = target;
+                        closure = target;
+                        code = function.chunk.code;
+                        constants = function.chunk.constants;
+                        ip = 0;
+                        if (ensureStack(base + function.maxStack))
+                            stack = this.stack;
+                    } else {
+                        // the RETURN that follows returns the result
+                        sp -= argc;
+                        if (callee instanceof LoxCallable)
+                            stack[sp - 1] = callNative((LoxCallable) callee, sp, argc);
+                    }
+                }
+                case CLOSURE -> {
+                    VmFunction function = (VmFunction) constants[u16(code, ip)];
+                    stack[sp++] = closure(function, closure, code, ip + 2, base);
+                    ip += 2 + 4 * function.upvalueCount;
+                }
+                case CLOSE_UPVALUE -> {
+                    closeUpvalues(sp - 1);
+                    sp--;
+                }
+                case RETURN -> {
+                    Object result = stack[--sp];
+                    closeUpvalues(base);
+                    sp = base;
+                    frames[--frameCount].closure = null;
+                    if (frameCount == entry)
+                        return result;
+
+                    stack[sp++] = result;
+                    frame = frames[frameCount - 1];
+                    closure = frame.closure;
+                    code = closure.function.chunk.code;
+                    constants = closure.function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                }
+                case HALT -> {
+                    // only compiled into scripts, so the frame is the entry frame
+                    closeUpvalues(base);
+                    frames[--frameCount].closure = null;
+                    return HALTED;
+                }
+                default -> throw unknownOpcode(op);
+            }
+        }
+    }
+
+    private Object callNative(LoxCallable callee, int argsFrom, int argc) {
+        return switch (argc) {
+            case 0 -> callee.call0(null);
+            case 1 -> callee.call1(null, stack[argsFrom]);
+            case 2 -> callee.call2(null, stack[argsFrom], stack[argsFrom + 1]);
+            default -> callee.callN(null, Arrays.copyOfRange(stack, argsFrom, argsFrom + argc));
+        };
+    }
+
+    private Closure closure(VmFunction function, Closure enclosing, byte[] code, int ip, int base) {
+        Closure created = new Closure(function);
+        for (int i = 0; i < function.upvalueCount; i++, ip += 4) {
+            boolean local = u16(code, ip) == 1;
+            int index = u16(code, ip + 2);
+            created.upvalues[i] = local ? capture(base + index) : enclosing.upvalues[index];
+        }
+        return created;
+    }
+
+    private static RuntimeError arityError(VmFunction function, int argc) {
+        return new RuntimeError(null, "Expected " + function.arity + " arguments but got " + argc + ".");
+    }
+
+    private static IllegalStateException unknownOpcode(byte op) {
+        return new IllegalStateException("Unknown opcode " + op);
+    }
+
+    private Frame pushFrame(Closure closure, int base) {
+        if (frameCount == frames.length)
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        Frame frame = frames[frameCount];
+        if (frame == null)
+            frame = frames[frameCount] = new Frame();
+        frameCount++;
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = base;
+        return frame;
+    }
+
+    // returns true if the stack had to grow
+    private boolean ensureStack(int size) {
+        if (size <= stack.length)
+            return false;
+        stack = Arrays.copyOf(stack, Math.max(stack.length * 2, size));
+        return true;
+    }
+
+    private Upvalue capture(int slot) {
+        Upvalue previous = null, upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.slot == slot)
+            return upvalue;
+
+        Upvalue created = new Upvalue(slot, upvalue);
+        if (previous == null)
+            openUpvalues = created;
+        else
+            previous.next = created;
+        return created;
+    }
+
+    private void closeUpvalues(int from) {
+        while (openUpvalues != null && openUpvalues.slot >= from) {
+            Upvalue upvalue = openUpvalues;
+            upvalue.value = stack[upvalue.slot];
+            upvalue.slot = -1;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    private RuntimeError undefined(Closure closure, int ip, int index) {
+        String name = null;
+        for (Map.Entry<String, Integer> entry : globalIndex.entrySet()) {
+            if (entry.getValue() == index)
+                name = entry.getKey();
+        }
+        Token token = new Token(TokenType.IDENTIFIER, name, null, closure.function.chunk.lines[ip]);
+        return new RuntimeError(token, "Undefined variable '" + name + "'.");
+    }
+}
@@ -0,0 +1,26 @@
+package com.thecout.lox.Bytecode;
+
+/**
+ * A compiled function. It becomes a value only together with its upvalues, see {@link Closure}.
+ */
+final class VmFunction {
+    final String name;
+    final int arity;
+    final Chunk chunk;
+    final int upvalueCount;
+    // stack slots a call needs above its base: callee, parameters, locals and temporaries
+    final int maxStack;
+
+    VmFunction(String name, int arity, Chunk chunk, int upvalueCount, int maxStack) {
+        this.name = name;
+        this.arity = arity;
+        this.chunk = chunk;
+        this.upvalueCount = upvalueCount;
+        this.maxStack = maxStack;
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + name + ">";
+    }
+}
@@ -0,0 +1,225 @@
+package com.thecout.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.thecout.lox.TokenType.EOF;
+
+/**
+ * Keeps a source and its tokens in sync while the source is edited.
+ * Tokens never span lines, so the source is kept as chunks of whole lines, each with its own tokens,
+ * in a balanced tree that knows the characters, lines and tokens of every subtree.
+ * An edit only takes out the chunks it touches, re-lexes them and puts the new chunks back in,
+ * so its cost depends on the size of the edit and the chunks, not on the size of the source.
+ *
+ * <p>Tokens are never changed once they are handed out. A chunk remembers the line it was lexed on;
+ * when lines are added or removed before it, {@link #tokens()} returns copies with the moved line
+ * and the tokens an earlier call returned keep their old line.</p>
+ */
+public class IncrementalScanner {
+    // lines per chunk when the source is cut, edits can leave shorter chunks behind
+    private static final int CHUNK_LINES = 64;
+
+    private Chunk root;
+    private boolean endsWithNewline;
+
+    private static final class Chunk {
+        final String text;
+        final List<Token> tokens;
+        // the line the tokens were lexed on
+        final int base;
+        final int newlines;
+        final int priority = ThreadLocalRandom.current().nextInt();
+
+        Chunk left, right;
+        // of the subtree
+        int count, chars, lines, tokenCount;
+
+        Chunk(String text, List<Token> tokens, int base, int newlines) {
+            this.text = text;
+            this.tokens = tokens;
+            this.base = base;
+            this.newlines = newlines;
+            update();
+        }
+
+        void update() {
+            count = 1 + count(left) + count(right);
+            chars = text.length() + chars(left) + chars(right);
+            lines = newlines + lines(left) + lines(right);
+            tokenCount = tokens.size() + tokenCount(left) + tokenCount(right);
+        }
+    }
+
+    public IncrementalScanner(String source) {
+        this.root = chunks(source, 1);
+        this.endsWithNewline = source.endsWith("\n");
+    }
+
+    public String source() {
+        StringBuilder source = new StringBuilder(chars(root));
+        forEach(root, 1, (chunk, line) -> source.append(chunk.text));
+        return source.toString();
+    }
+
+    /**
+     * A new list of all tokens, ending in EOF. Tokens of chunks that moved since they were lexed are copies.
+     */
+    public List<Token> tokens() {
+        List<Token> tokens = new ArrayList<>(tokenCount(root) + 1);
+        forEach(root, 1, (chunk, line) -> {
+            int shift = line - chunk.base;
+            for (Token token : chunk.tokens)
+                tokens.add(shift == 0 ? token : moved(token, shift));
+        });
+        tokens.add(new Token(EOF, "", "", endsWithNewline ? lines(root) : lines(root) + 1));
+        return tokens;
+    }
+
+    /**
+     * Number of tokens including EOF, without building the list.
+     */
+    public int tokenCount() {
+        return tokenCount(root) + 1;
+    }
+
+    /**
+     * Replaces removed characters at offset with inserted and re-lexes the chunks the edit touches.
+     *
+     * @return the first and last line (in the new source) the edit changed, the other re-lexed lines
+     * have the same tokens as before
+     */
+    public int[] edit(int offset, int removed, String inserted) {
+        // the chunks with the first changed character and the first character after the removed ones
+        int first = locate(offset);
+        int last = locate(offset + removed);
+        Chunk[] head = split(root, first);
+        Chunk[] rest = split(head[1], last - first + 1);
+
+        int start = chars(head[0]);
+        int firstLine = 1 + lines(head[0]);
+        StringBuilder old = new StringBuilder(chars(rest[0]));
+        forEach(rest[0], firstLine, (chunk, line) -> old.append(chunk.text));
+        String text = old.substring(0, offset - start) + inserted + old.substring(offset + removed - start);
+
+        root = merge(merge(head[0], chunks(text, firstLine)), rest[1]);
+        // every chunk but the last ends with a newline
+        if (rest[1] == null)
+            endsWithNewline = text.isEmpty() ? chars(head[0]) > 0 : text.endsWith("\n");
+
+        int editLine = firstLine + countLines(text, 0, offset - start);
+        return new int[]{editLine, editLine + countLines(inserted, 0, inserted.length())};
+    }
+
+    // index of the chunk with the character at offset, the last chunk for the end of the source
+    private int locate(int offset) {
+        Chunk chunk = root;
+        int index = 0;
+        while (true) {
+            if (offset < chars(chunk.left)) {
+                chunk = chunk.left;
+                continue;
+            }
+            offset -= chars(chunk.left);
+            index += count(chunk.left);
+            if (offset < chunk.text.length() || chunk.right == null)
+                return index;
+            offset -= chunk.text.length();
+            index++;
+            chunk = chunk.right;
+        }
+    }
+
+    // text cut into chunks of at most CHUNK_LINES lines, there is at least one chunk
+    private static Chunk chunks(String text, int line) {
+        Chunk result = null;
+        int start = 0;
+        do {
+            int end = start, newlines = 0;
+            while (end < text.length() && newlines < CHUNK_LINES)
+                if (text.charAt(end++) == '\n')
+                    newlines++;
+            List<Token> tokens = new ArrayList<>();
+            Scanner.scanRange(text, start, end, line, tokens);
+            result = merge(result, new Chunk(text.substring(start, end), tokens, line, newlines));
+            line += newlines;
+            start = end;
+        } while (start < text.length());
+        return result;
+    }
+
+    private static Token moved(Token token, int shift) {
+        Token copy = new Token(token.type, token.lexeme, token.literal, token.line + shift);
+        copy.idx = token.idx;
+        return copy;
+    }
+
+    private interface Visitor {
+        void visit(Chunk chunk, int line);
+    }
+
+    // in order, line is the first line of the subtree
+    private static int forEach(Chunk chunk, int line, Visitor visitor) {
+        if (chunk == null)
+            return line;
+        line = forEach(chunk.left, line, visitor);
+        visitor.visit(chunk, line);
+        return forEach(chunk.right, line + chunk.newlines, visitor);
+    }
+
+    // the first count chunks and the rest
+    private static Chunk[] split(Chunk chunk, int count) {
+        if (chunk == null)
+            return new Chunk[2];
+        if (count <= count(chunk.left)) {
+            Chunk[] parts = split(chunk.left, count);
+            chunk.left = parts[1];
+            chunk.update();
+            return new Chunk[]{parts[0], chunk};
+        }
+        Chunk[] parts = split(chunk.right, count - count(chunk.left) - 1);
+        chunk.right = parts[0];
+        chunk.update();
+        return new Chunk[]{chunk, parts[1]};
+    }
+
+    private static Chunk merge(Chunk left, Chunk right) {
+        if (left == null)
+            return right;
+        if (right == null)
+            return left;
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            left.update();
+            return left;
+        }
+        right.left = merge(left, right.left);
+        right.update();
+        return right;
+    }
+
+    private static int count(Chunk chunk) {
+        return chunk == null ? 0 : chunk.count;
+    }
+
+    private static int chars(Chunk chunk) {
+        return chunk == null ? 0 : chunk.chars;
+    }
+
+    private static int lines(Chunk chunk) {
+        return chunk == null ? 0 : chunk.lines;
+    }
+
+    private static int tokenCount(Chunk chunk) {
+        return chunk == null ? 0 : chunk.tokenCount;
+    }
+
+    private static int countLines(String text, int start, int end) {
+        int count = 0;
+        for (int i = start; i < end; i++)
+            if (text.charAt(i) == '\n')
+                count++;
+        return count;
+    }
+}
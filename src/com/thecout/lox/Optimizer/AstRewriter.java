@@ -0,0 +1,159 @@
+package com.thecout.lox.Optimizer;
+
+import com.thecout.lox.Parser.Expr.*;
+import com.thecout.lox.Parser.Stmts.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base of the optimizer passes. Rebuilds the tree bottom up, a node is only copied if one of its children
+ * changed, so untouched subtrees stay shared with the input. A statement rewritten to null is removed
+ * from its list; where a single statement is required it becomes an empty block.
+ */
+public abstract class AstRewriter implements ExprVisitor<Expr>, StmtVisitor<Stmt> {
+
+    public List<Stmt> rewrite(List<Stmt> statements) {
+        List<Stmt> result = null;
+        for (int i = 0; i < statements.size(); i++) {
+            Stmt statement = statements.get(i);
+            Stmt rewritten = rewrite(statement);
+            if (rewritten != statement && result == null)
+                result = new ArrayList<>(statements.subList(0, i));
+            if (result != null && rewritten != null)
+                result.add(rewritten);
+        }
+        return result == null ? statements : result;
+    }
+
+    protected Expr rewrite(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    protected Stmt rewrite(Stmt stmt) {
+        return stmt == null ? null : stmt.accept(this);
+    }
+
+    // for the branches and loop bodies that cannot be removed
+    protected Stmt rewriteBody(Stmt stmt) {
+        Stmt rewritten = rewrite(stmt);
+        return rewritten != null ? rewritten : new Block(new ArrayList<>());
+    }
+
+    protected List<Expr> rewriteExprs(List<Expr> exprs) {
+        List<Expr> result = null;
+        for (int i = 0; i < exprs.size(); i++) {
+            Expr expr = exprs.get(i);
+            Expr rewritten = rewrite(expr);
+            if (rewritten != expr && result == null)
+                result = new ArrayList<>(exprs.subList(0, i));
+            if (result != null)
+                result.add(rewritten);
+        }
+        return result == null ? exprs : result;
+    }
+
+
+    @Override
+    public Expr visitAssignExpr(Assign expr) {
+        Expr value = rewrite(expr.value);
+        return value == expr.value ? expr : new Assign(expr.name, value);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Binary expr) {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        return left == expr.left && right == expr.right ? expr : new Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Call expr) {
+        Expr callee = rewrite(expr.callee);
+        List<Expr> arguments = rewriteExprs(expr.arguments);
+        return callee == expr.callee && arguments == expr.arguments ? expr : new Call(callee, arguments);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Grouping expr) {
+        Expr expression = rewrite(expr.expression);
+        return expression == expr.expression ? expr : new Grouping(expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Logical expr) {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        return left == expr.left && right == expr.right ? expr : new Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Unary expr) {
+        Expr right = rewrite(expr.right);
+        return right == expr.right ? expr : new Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Variable expr) {
+        return expr;
+    }
+
+
+    @Override
+    public Stmt visitBlockStmt(Block stmt) {
+        List<Stmt> statements = rewrite(stmt.statements);
+        return statements == stmt.statements ? stmt : new Block(statements);
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Expression stmt) {
+        Expr expression = rewrite(stmt.expression);
+        return expression == stmt.expression ? stmt : new Expression(expression);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Function stmt) {
+        List<Stmt> body = rewrite(stmt.body);
+        return body == stmt.body ? stmt : new Function(stmt.name, stmt.parameters, body);
+    }
+
+    @Override
+    public Stmt visitIfStmt(If stmt) {
+        Expr condition = rewrite(stmt.condition);
+        Stmt thenBranch = rewriteBody(stmt.thenBranch);
+        Stmt elseBranch = rewrite(stmt.elseBranch);
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch)
+            return stmt;
+        return new If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Print stmt) {
+        Expr expression = rewrite(stmt.expression);
+        return expression == stmt.expression ? stmt : new Print(expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Return stmt) {
+        Expr value = rewrite(stmt.value);
+        return value == stmt.value ? stmt : new Return(value);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Var stmt) {
+        Expr initializer = rewrite(stmt.initializer);
+        return initializer == stmt.initializer ? stmt : new Var(stmt.name, initializer);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(While stmt) {
+        Expr condition = rewrite(stmt.condition);
+        Stmt body = rewriteBody(stmt.body);
+        return condition == stmt.condition && body == stmt.body ? stmt : new While(condition, body);
+    }
+}
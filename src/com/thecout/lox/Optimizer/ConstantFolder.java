@@ -0,0 +1,249 @@
+package com.thecout.lox.Optimizer;
+
+import com.thecout.lox.Parser.Expr.*;
+import com.thecout.lox.Parser.Stmts.*;
+import com.thecout.lox.Token;
+import com.thecout.lox.TokenType;
+import com.thecout.lox.Traversal.InterpreterUtils.Operators;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Folds operators on literals into literals, replaces reads of variables that are initialized with a literal
+ * and never assigned by the literal and drops if and while branches that a constant condition rules out.
+ * Operations that would fail at runtime, like adding a string to a number, are left alone so the
+ * interpreter still reports them when they run.
+ *
+ * <p>Scopes follow the {@link com.thecout.lox.Traversal.Resolver}. A global is only constant if it is
+ * declared once and never assigned, and its reads are only replaced after the declaration, so reading
+ * it too early still fails.</p>
+ */
+public class ConstantFolder extends AstRewriter {
+    // marks a declaration that shadows a constant
+    private static final Literal NOT_CONSTANT = new Literal(null);
+
+    private final List<Map<String, Literal>> scopes = new ArrayList<>();
+    private final Map<String, Literal> globals = new HashMap<>();
+    private Assignments assignments;
+
+    public List<Stmt> fold(List<Stmt> statements) {
+        assignments = new Assignments();
+        assignments.rewrite(statements);
+        return rewrite(statements);
+    }
+
+    /**
+     * First pass: which declarations are assigned or redeclared somewhere, and how often each global is declared.
+     */
+    private static class Assignments extends AstRewriter {
+        final List<Map<String, Stmt>> scopes = new ArrayList<>();
+        final Set<Stmt> assigned = Collections.newSetFromMap(new IdentityHashMap<>());
+        final Set<String> assignedGlobals = new HashSet<>();
+        final Map<String, Integer> globalDeclarations = new HashMap<>();
+
+        void declare(String name, Stmt declaration) {
+            if (scopes.isEmpty()) {
+                globalDeclarations.merge(name, 1, Integer::sum);
+                return;
+            }
+            // a redeclaration in the same scope shares the slot, so neither is constant
+            Stmt previous = scopes.get(scopes.size() - 1).put(name, declaration);
+            if (previous != null) {
+                assigned.add(previous);
+                assigned.add(declaration);
+            }
+        }
+
+        @Override
+        public Expr visitAssignExpr(Assign expr) {
+            rewrite(expr.value);
+            for (int i = scopes.size() - 1; i >= 0; i--) {
+                Stmt declaration = scopes.get(i).get(expr.name.lexeme);
+                if (declaration != null) {
+                    assigned.add(declaration);
+                    return expr;
+                }
+            }
+            assignedGlobals.add(expr.name.lexeme);
+            return expr;
+        }
+
+        @Override
+        public Stmt visitBlockStmt(Block stmt) {
+            scopes.add(new HashMap<>());
+            rewrite(stmt.statements);
+            scopes.remove(scopes.size() - 1);
+            return stmt;
+        }
+
+        @Override
+        public Stmt visitFunctionStmt(Function stmt) {
+            declare(stmt.name.lexeme, stmt);
+            scopes.add(new HashMap<>());
+            for (Token parameter : stmt.parameters)
+                declare(parameter.lexeme, stmt);
+            rewrite(stmt.body);
+            scopes.remove(scopes.size() - 1);
+            return stmt;
+        }
+
+        @Override
+        public Stmt visitVarStmt(Var stmt) {
+            rewrite(stmt.initializer);
+            declare(stmt.name.lexeme, stmt);
+            return stmt;
+        }
+    }
+
+
+    private void declare(Token name, Literal value) {
+        if (scopes.isEmpty()) {
+            if (value != NOT_CONSTANT)
+                globals.put(name.lexeme, value);
+            return;
+        }
+        scopes.get(scopes.size() - 1).put(name.lexeme, value);
+    }
+
+    private static Literal fold(TokenType operator, Object left, Object right) {
+        try {
+            return new Literal(Operators.apply(operator, left, right));
+        } catch (ClassCastException | NullPointerException e) {
+            // a type error, left for the interpreter to report if the code runs
+            return null;
+        }
+    }
+
+
+    @Override
+    public Expr visitBinaryExpr(Binary expr) {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        if (left instanceof Literal && right instanceof Literal) {
+            Literal folded = fold(expr.operator.type, ((Literal) left).value, ((Literal) right).value);
+            if (folded != null)
+                return folded;
+        }
+        return left == expr.left && right == expr.right ? expr : new Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Call expr) {
+        Expr callee = rewrite(expr.callee);
+        // a literal is never callable, so the call is the literal and the arguments are not evaluated
+        if (callee instanceof Literal)
+            return callee;
+        List<Expr> arguments = rewriteExprs(expr.arguments);
+        return callee == expr.callee && arguments == expr.arguments ? expr : new Call(callee, arguments);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Grouping expr) {
+        Expr expression = rewrite(expr.expression);
+        if (expression instanceof Literal)
+            return expression;
+        return expression == expr.expression ? expr : new Grouping(expression);
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Logical expr) {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        if (left instanceof Literal && ((Literal) left).value instanceof Boolean) {
+            boolean value = (boolean) ((Literal) left).value;
+            // the left operand decides
+            if (expr.operator.type == TokenType.OR && value || expr.operator.type == TokenType.AND && !value)
+                return left;
+            if (right instanceof Literal && ((Literal) right).value instanceof Boolean)
+                return right;
+        }
+        return left == expr.left && right == expr.right ? expr : new Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Unary expr) {
+        Expr right = rewrite(expr.right);
+        if (right instanceof Literal) {
+            Object value = ((Literal) right).value;
+            if (expr.operator.type == TokenType.BANG && value instanceof Boolean)
+                return new Literal(!(boolean) value);
+            if (expr.operator.type == TokenType.MINUS && value instanceof Double)
+                return new Literal(-(double) value);
+        }
+        return right == expr.right ? expr : new Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Variable expr) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Literal value = scopes.get(i).get(expr.name.lexeme);
+            if (value != null)
+                return value == NOT_CONSTANT ? expr : value;
+        }
+        Literal value = globals.get(expr.name.lexeme);
+        return value != null ? value : expr;
+    }
+
+
+    @Override
+    public Stmt visitBlockStmt(Block stmt) {
+        scopes.add(new HashMap<>());
+        List<Stmt> statements = rewrite(stmt.statements);
+        scopes.remove(scopes.size() - 1);
+        return statements == stmt.statements ? stmt : new Block(statements);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Function stmt) {
+        declare(stmt.name, NOT_CONSTANT);
+        scopes.add(new HashMap<>());
+        for (Token parameter : stmt.parameters)
+            declare(parameter, NOT_CONSTANT);
+        List<Stmt> body = rewrite(stmt.body);
+        scopes.remove(scopes.size() - 1);
+        return body == stmt.body ? stmt : new Function(stmt.name, stmt.parameters, body);
+    }
+
+    @Override
+    public Stmt visitIfStmt(If stmt) {
+        Expr condition = rewrite(stmt.condition);
+        if (condition instanceof Literal && ((Literal) condition).value instanceof Boolean)
+            return rewrite((boolean) ((Literal) condition).value ? stmt.thenBranch : stmt.elseBranch);
+
+        Stmt thenBranch = rewriteBody(stmt.thenBranch);
+        Stmt elseBranch = rewrite(stmt.elseBranch);
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch)
+            return stmt;
+        return new If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Var stmt) {
+        Expr initializer = rewrite(stmt.initializer);
+
+        boolean constant = initializer instanceof Literal && !assignments.assigned.contains(stmt);
+        if (scopes.isEmpty())
+            constant &= assignments.globalDeclarations.get(stmt.name.lexeme) == 1
+                    && !assignments.assignedGlobals.contains(stmt.name.lexeme);
+        declare(stmt.name, constant ? (Literal) initializer : NOT_CONSTANT);
+
+        return initializer == stmt.initializer ? stmt : new Var(stmt.name, initializer);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(While stmt) {
+        Expr condition = rewrite(stmt.condition);
+        if (condition instanceof Literal && Boolean.FALSE.equals(((Literal) condition).value))
+            return null;
+
+        Stmt body = rewriteBody(stmt.body);
+        return condition == stmt.condition && body == stmt.body ? stmt : new While(condition, body);
+    }
+}
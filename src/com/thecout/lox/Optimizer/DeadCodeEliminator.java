@@ -0,0 +1,122 @@
+package com.thecout.lox.Optimizer;
+
+import com.thecout.lox.Parser.Expr.*;
+import com.thecout.lox.Parser.Stmts.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Removes function declarations that cannot be reached from the statements that run, variable declarations
+ * with a literal initializer whose name is never used and statements after a return.
+ * Declarations at the top level are globals that a later call to interpret may still use, they are always kept.
+ *
+ * <p>Reachability goes by name: a function body is only scanned once something reachable mentions the
+ * function's name, in any scope. That keeps shadowed names alive more often than needed, but never
+ * removes a declaration that is used.</p>
+ */
+public class DeadCodeEliminator extends AstRewriter {
+    private Reachability reachability;
+    private final Set<Stmt> globals = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    public List<Stmt> eliminate(List<Stmt> statements) {
+        globals.addAll(statements);
+        reachability = new Reachability();
+        reachability.scan(statements);
+        return rewrite(statements);
+    }
+
+    /**
+     * First pass: every name used by reachable code, and the function declarations whose body is reachable.
+     */
+    private static class Reachability extends AstRewriter {
+        final Set<String> referenced = new HashSet<>();
+        final Set<Function> reachable = Collections.newSetFromMap(new IdentityHashMap<>());
+        final Map<String, List<Function>> declarations = new HashMap<>();
+        // reachable functions whose body is not scanned yet, a work list so long call chains do not recurse
+        final Deque<Function> pending = new ArrayDeque<>();
+
+        void scan(List<Stmt> statements) {
+            // global functions stay, so whatever they use is reachable
+            for (Stmt statement : statements)
+                if (statement instanceof Function)
+                    reach((Function) statement);
+            rewrite(statements);
+            while (!pending.isEmpty())
+                rewrite(pending.poll().body);
+        }
+
+        void reference(String name) {
+            if (!referenced.add(name))
+                return;
+            for (Function function : declarations.getOrDefault(name, List.of()))
+                reach(function);
+        }
+
+        void reach(Function function) {
+            if (reachable.add(function))
+                pending.add(function);
+        }
+
+        @Override
+        public Expr visitAssignExpr(Assign expr) {
+            reference(expr.name.lexeme);
+            return super.visitAssignExpr(expr);
+        }
+
+        @Override
+        public Expr visitVariableExpr(Variable expr) {
+            reference(expr.name.lexeme);
+            return expr;
+        }
+
+        @Override
+        public Stmt visitFunctionStmt(Function stmt) {
+            declarations.computeIfAbsent(stmt.name.lexeme, name -> new ArrayList<>()).add(stmt);
+            if (referenced.contains(stmt.name.lexeme))
+                reach(stmt);
+            return stmt;
+        }
+    }
+
+
+    // statements after a return never run
+    private static List<Stmt> untilReturn(List<Stmt> statements) {
+        for (int i = 0; i < statements.size() - 1; i++) {
+            if (statements.get(i) instanceof Return)
+                return new ArrayList<>(statements.subList(0, i + 1));
+        }
+        return statements;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Block stmt) {
+        List<Stmt> statements = untilReturn(rewrite(stmt.statements));
+        return statements == stmt.statements ? stmt : new Block(statements);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Function stmt) {
+        if (!reachability.reachable.contains(stmt))
+            return null;
+        List<Stmt> body = untilReturn(rewrite(stmt.body));
+        return body == stmt.body ? stmt : new Function(stmt.name, stmt.parameters, body);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Var stmt) {
+        // a literal initializer cannot fail or have side effects
+        boolean pure = stmt.initializer == null || stmt.initializer instanceof Literal;
+        if (pure && !globals.contains(stmt) && !reachability.referenced.contains(stmt.name.lexeme))
+            return null;
+        return stmt;
+    }
+}
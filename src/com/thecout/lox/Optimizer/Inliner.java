@@ -0,0 +1,255 @@
+package com.thecout.lox.Optimizer;
+
+import com.thecout.lox.Parser.Expr.*;
+import com.thecout.lox.Parser.Stmts.*;
+import com.thecout.lox.Token;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replaces calls of small global functions with the function's body. A function qualifies if its body
+ * is a single return of an expression of at most {@code lox.inline.budget} nodes (default 16) without calls
+ * or assignments, so it is not recursive and cannot observe when its parameters were evaluated.
+ * Only the global function of that name qualifies, and only if nothing declares the name again or assigns it.
+ *
+ * <p>A call is inlined if it comes after the declaration, passes one literal or variable per parameter
+ * and no local at the call site shadows a global the body uses. The arguments then read the same values
+ * inline as they would have on entry to the function. A variable argument also has to be read on every
+ * path through the body, not only right of an and or or, because reading an undefined variable fails.
+ * Other arguments would have to be evaluated before the body, for which the tree has no node.</p>
+ */
+public class Inliner extends AstRewriter {
+    private final int budget;
+    private final List<String> inlined = new ArrayList<>();
+
+    private final Map<String, Function> candidates = new HashMap<>();
+    private final Set<String> declared = new HashSet<>();
+    private final List<Set<String>> scopes = new ArrayList<>();
+
+    public Inliner() {
+        this(Integer.getInteger("lox.inline.budget", 16));
+    }
+
+    public Inliner(int budget) {
+        this.budget = budget;
+    }
+
+    public List<Stmt> inline(List<Stmt> statements) {
+        if (budget <= 0)
+            return statements;
+        Declarations declarations = new Declarations();
+        declarations.rewrite(statements);
+        for (Stmt statement : statements) {
+            if (statement instanceof Function && qualifies((Function) statement, declarations))
+                candidates.put(((Function) statement).name.lexeme, (Function) statement);
+        }
+        return rewrite(statements);
+    }
+
+    /**
+     * The inlined call sites, as "name at line n", in program order.
+     */
+    public List<String> inlined() {
+        return inlined;
+    }
+
+    /**
+     * First pass: how often each global is declared and which names are assigned anywhere.
+     */
+    private static class Declarations extends AstRewriter {
+        final Map<String, Integer> globals = new HashMap<>();
+        final Set<String> assigned = new HashSet<>();
+        private int depth = 0;
+
+        @Override
+        public Expr visitAssignExpr(Assign expr) {
+            assigned.add(expr.name.lexeme);
+            return super.visitAssignExpr(expr);
+        }
+
+        @Override
+        public Stmt visitBlockStmt(Block stmt) {
+            depth++;
+            super.visitBlockStmt(stmt);
+            depth--;
+            return stmt;
+        }
+
+        @Override
+        public Stmt visitFunctionStmt(Function stmt) {
+            if (depth == 0)
+                globals.merge(stmt.name.lexeme, 1, Integer::sum);
+            depth++;
+            super.visitFunctionStmt(stmt);
+            depth--;
+            return stmt;
+        }
+
+        @Override
+        public Stmt visitVarStmt(Var stmt) {
+            if (depth == 0)
+                globals.merge(stmt.name.lexeme, 1, Integer::sum);
+            return super.visitVarStmt(stmt);
+        }
+    }
+
+    private boolean qualifies(Function function, Declarations declarations) {
+        String name = function.name.lexeme;
+        if (declarations.globals.get(name) != 1 || declarations.assigned.contains(name))
+            return false;
+        if (function.body.size() != 1 || !(function.body.get(0) instanceof Return))
+            return false;
+        Expr value = ((Return) function.body.get(0)).value;
+        return value != null && size(value) <= budget;
+    }
+
+    // number of nodes, or more than any budget if the expression has a call or an assignment
+    private static int size(Expr expr) {
+        if (expr instanceof Literal || expr instanceof Variable)
+            return 1;
+        if (expr instanceof Binary)
+            return 1 + size(((Binary) expr).left) + size(((Binary) expr).right);
+        if (expr instanceof Logical)
+            return 1 + size(((Logical) expr).left) + size(((Logical) expr).right);
+        if (expr instanceof Unary)
+            return 1 + size(((Unary) expr).right);
+        if (expr instanceof Grouping)
+            return 1 + size(((Grouping) expr).expression);
+        return Integer.MAX_VALUE / 2;
+    }
+
+    private boolean isLocal(String name) {
+        for (Set<String> scope : scopes) {
+            if (scope.contains(name))
+                return true;
+        }
+        return false;
+    }
+
+    private void declare(Token name) {
+        if (scopes.isEmpty())
+            declared.add(name.lexeme);
+        else
+            scopes.get(scopes.size() - 1).add(name.lexeme);
+    }
+
+
+    @Override
+    public Expr visitCallExpr(Call expr) {
+        Call call = (Call) super.visitCallExpr(expr);
+        if (!(call.callee instanceof Variable))
+            return call;
+        Token name = ((Variable) call.callee).name;
+        Function function = candidates.get(name.lexeme);
+        if (function == null || !declared.contains(name.lexeme) || isLocal(name.lexeme))
+            return call;
+
+        Expr body = new Substitution(function, call.arguments).apply(((Return) function.body.get(0)).value);
+        if (body == null)
+            return call;
+        inlined.add(name.lexeme + " at line " + name.line);
+        return body;
+    }
+
+    /**
+     * Copy of a function body with the parameters replaced by the arguments. Variables are copied,
+     * the resolver annotates every use separately.
+     */
+    private class Substitution extends AstRewriter {
+        private final Map<String, Expr> arguments = new HashMap<>();
+        private final Set<String> unused = new HashSet<>();
+        private boolean failed = false;
+        // > 0 while rewriting a part of the body that is not always evaluated
+        private int conditional = 0;
+
+        Substitution(Function function, List<Expr> arguments) {
+            if (arguments.size() != function.parameters.size()) {
+                failed = true;
+                return;
+            }
+            for (int i = 0; i < arguments.size(); i++) {
+                Expr argument = arguments.get(i);
+                if (!(argument instanceof Literal) && !(argument instanceof Variable)) {
+                    failed = true;
+                    return;
+                }
+                String parameter = function.parameters.get(i).lexeme;
+                this.arguments.put(parameter, argument);
+                // reading an undefined global fails, so a variable argument has to be read whenever the call runs
+                if (argument instanceof Variable)
+                    unused.add(parameter);
+            }
+        }
+
+        // null if the call cannot be inlined
+        Expr apply(Expr body) {
+            if (failed)
+                return null;
+            Expr result = rewrite(body);
+            return failed || !unused.isEmpty() ? null : result;
+        }
+
+        @Override
+        public Expr visitGroupingExpr(Grouping expr) {
+            // the interpreter does not evaluate the expression of a grouping
+            conditional++;
+            Expr result = super.visitGroupingExpr(expr);
+            conditional--;
+            return result;
+        }
+
+        @Override
+        public Expr visitLogicalExpr(Logical expr) {
+            Expr left = rewrite(expr.left);
+            conditional++;
+            Expr right = rewrite(expr.right);
+            conditional--;
+            return left == expr.left && right == expr.right ? expr : new Logical(left, expr.operator, right);
+        }
+
+        @Override
+        public Expr visitVariableExpr(Variable expr) {
+            Expr argument = arguments.get(expr.name.lexeme);
+            if (argument == null) {
+                // a global the body reads, which a local at the call site must not hide
+                failed |= isLocal(expr.name.lexeme);
+                return new Variable(expr.name);
+            }
+            if (conditional == 0)
+                unused.remove(expr.name.lexeme);
+            return argument instanceof Variable ? new Variable(((Variable) argument).name) : argument;
+        }
+    }
+
+
+    @Override
+    public Stmt visitBlockStmt(Block stmt) {
+        scopes.add(new HashSet<>());
+        List<Stmt> statements = rewrite(stmt.statements);
+        scopes.remove(scopes.size() - 1);
+        return statements == stmt.statements ? stmt : new Block(statements);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Function stmt) {
+        declare(stmt.name);
+        scopes.add(new HashSet<>());
+        for (Token parameter : stmt.parameters)
+            declare(parameter);
+        List<Stmt> body = rewrite(stmt.body);
+        scopes.remove(scopes.size() - 1);
+        return body == stmt.body ? stmt : new Function(stmt.name, stmt.parameters, body);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Var stmt) {
+        Expr initializer = rewrite(stmt.initializer);
+        declare(stmt.name);
+        return initializer == stmt.initializer ? stmt : new Var(stmt.name, initializer);
+    }
+}
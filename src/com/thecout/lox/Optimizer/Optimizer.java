@@ -0,0 +1,33 @@
+package com.thecout.lox.Optimizer;
+
+import com.thecout.lox.Parser.Stmts.Stmt;
+
+import java.util.List;
+
+/**
+ * Entry point of the AST optimizer, run by the interpreters and the VM before the resolver
+ * or the compiler see the statements. The input is not modified.
+ *
+ * <p>The passes treat the statements as the whole program: a global that only this list declares and never
+ * assigns is a constant and a small function it never redeclares is inlined, even if a later call to interpret
+ * would assign the global or redeclare the function. Global declarations themselves are never removed,
+ * so a later call can still use them.
+ * {@code -Dlox.inline.report=true} prints the inlined calls to stderr.</p>
+ */
+public class Optimizer {
+
+    public static List<Stmt> optimize(List<Stmt> statements) {
+        statements = new ConstantFolder().fold(statements);
+
+        Inliner inliner = new Inliner();
+        statements = inliner.inline(statements);
+        if (Boolean.getBoolean("lox.inline.report"))
+            inliner.inlined().forEach(site -> System.err.println("inlined " + site));
+        // inlined bodies with literal arguments fold further
+        if (!inliner.inlined().isEmpty())
+            statements = new ConstantFolder().fold(statements);
+
+        // last, so branches folded away and inlined functions no longer keep functions alive
+        return new DeadCodeEliminator().eliminate(statements);
+    }
+}
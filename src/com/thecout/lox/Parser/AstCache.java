@@ -0,0 +1,113 @@
+package com.thecout.lox.Parser;
+
+import com.thecout.lox.Parser.Stmts.Stmt;
+import com.thecout.lox.Scanner;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compiled AST cache: a parsed script is written as a binary {@link FlatAst} to a .loxc file next to it,
+ * keyed by the SHA-256 of the source. As long as the source does not change, later runs skip
+ * scanning and parsing and hand the decoded statements straight to the interpreter.
+ *
+ * <p>Layout: magic, format version, source hash, FlatAst arrays.
+ * Bump {@link #VERSION} whenever the parser builds a different tree for the same source.</p>
+ */
+public class AstCache {
+    private static final int MAGIC = 0x4C4F5843; // "LOXC"
+    static final int VERSION = 2;
+
+    public static Path cachePath(Path source) {
+        return source.resolveSibling(source.getFileName() + "c");
+    }
+
+    /**
+     * Statements of the script at source, from the cache if it is up to date, otherwise parsed
+     * (and cached, if the script has no syntax errors).
+     */
+    public static List<Stmt> load(Path source) throws IOException {
+        byte[] bytes = Files.readAllBytes(source);
+        byte[] hash = hash(bytes);
+        Path cache = cachePath(source);
+
+        if (Files.exists(cache)) {
+            try {
+                FlatAst ast = read(ByteBuffer.wrap(Files.readAllBytes(cache)), hash);
+                if (ast != null)
+                    return ast.statements();
+            } catch (IOException | RuntimeException e) {
+                // broken cache, parse again and overwrite it
+            }
+        }
+
+        Parser parser = new Parser(new Scanner(new String(bytes, StandardCharsets.UTF_8)).scanBuffer());
+        FlatAst ast = parser.parseFlat();
+        if (parser.getErrors().isEmpty()) {
+            store(cache, hash, ast);
+        }
+        return ast.statements();
+    }
+
+    /**
+     * Writes the cache to a temporary file next to it and moves that over the cache, so a run that reads
+     * the cache at the same time, or a crash while writing, never sees a half written file.
+     * The cache is only an optimization: if it cannot be written (e.g. the directory is read only) it is left out.
+     */
+    private static void store(Path cache, byte[] hash, FlatAst ast) {
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(cache.toAbsolutePath().getParent(), cache.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                write(out, hash, ast);
+            }
+            Files.move(temp, cache, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                    // nothing left to do, the next run writes the cache again
+                }
+            }
+        }
+    }
+
+    public static void write(DataOutputStream out, byte[] hash, FlatAst ast) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.write(hash);
+        ast.write(out);
+    }
+
+    /**
+     * @return the cached AST, or null if the cache belongs to another source or format version
+     */
+    public static FlatAst read(ByteBuffer in, byte[] hash) {
+        if (in.remaining() < 8 + hash.length || in.getInt() != MAGIC || in.getInt() != VERSION)
+            return null;
+        byte[] cached = new byte[hash.length];
+        in.get(cached);
+        if (!Arrays.equals(cached, hash))
+            return null;
+        return FlatAst.read(in);
+    }
+
+    public static byte[] hash(byte[] source) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(source);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
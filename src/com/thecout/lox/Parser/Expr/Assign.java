@@ -10,6 +10,8 @@ public class Assign extends Expr {
 
     public final Token name;
     public final Expr value;
+    // set by the Resolver, see Variable
+    public int depth = -1, slot = -1;
 
     @Override
     public String print() {
@@ -2,6 +2,9 @@ package com.thecout.lox.Parser.Expr;
 
 
 public abstract class Expr {
+    // runtime state an execution engine attaches to the node, see SpecializingInterpreter and CallSite
+    public Object specialization;
+
     public abstract String print();
     public abstract <R> R accept(ExprVisitor<R> exprVisitor);
 
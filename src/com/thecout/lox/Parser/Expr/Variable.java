@@ -9,6 +9,8 @@ public class Variable extends Expr {
 
 
     public final Token name;
+    // set by the Resolver: how many environments up the variable lives and its slot there, depth -1 means global
+    public int depth = -1, slot = -1;
 
     @Override
     public String print() {
@@ -0,0 +1,536 @@
+package com.thecout.lox.Parser;
+
+import com.thecout.lox.Parser.Expr.*;
+import com.thecout.lox.Parser.Stmts.*;
+import com.thecout.lox.Token;
+import com.thecout.lox.TokenType;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Flat representation of a parsed program: every node is an id into a few parallel int arrays,
+ * children are referenced by id, tokens and (deduplicated) literal values live in side tables
+ * and variable length children (arguments, parameters, statement lists) in one shared int array.
+ *
+ * <p>Visitors run over it through {@link #accept(int, StmtVisitor)} and {@link #accept(int, ExprVisitor)}:
+ * a node object is only materialized when it is visited, at most once, and statement lists
+ * (function and block bodies) are decoded lazily, so unused functions never turn into objects.</p>
+ */
+public class FlatAst {
+    // expression kinds
+    public static final byte ASSIGN = 0, BINARY = 1, CALL = 2, GROUPING = 3, LITERAL = 4, LOGICAL = 5, UNARY = 6, VARIABLE = 7;
+    // statement kinds
+    public static final byte BLOCK = 8, EXPRESSION = 9, FUNCTION = 10, IF = 11, PRINT = 12, RETURN = 13, VAR = 14, WHILE = 15;
+
+    private static final int NONE = -1;
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    private byte[] kinds = new byte[256];
+    private int[] a = new int[256], b = new int[256], c = new int[256];
+    private int size = 0;
+
+    // [length, element...] runs, referenced by the index of the length
+    private int[] lists = new int[256];
+    private int listsSize = 0;
+
+    // tokens are stored by their fields, lexemes and literal values are shared between equal entries
+    private byte[] tokenTypes = new byte[256];
+    private int[] tokenLexemes = new int[256];
+    private int[] tokenLines = new int[256], tokenIdx = new int[256];
+    private int tokenCount = 0;
+    private final Map<Object, Integer> pool = new HashMap<>();
+    private final List<Object> literals = new ArrayList<>();
+
+    private int[] roots = new int[16];
+    private int rootCount = 0;
+    private final Encoder encoder = new Encoder();
+    // nodes that were already materialized, allocated on first use
+    private Object[] materialized;
+
+    FlatAst() {
+    }
+
+    public static FlatAst of(List<Stmt> statements) {
+        FlatAst ast = new FlatAst();
+        statements.forEach(ast::add);
+        return ast;
+    }
+
+    /**
+     * Appends a top level statement. The Parser encodes every declaration as soon as it is parsed,
+     * so the object tree of one declaration is garbage before the next one is parsed.
+     */
+    void add(Stmt statement) {
+        if (rootCount == roots.length)
+            roots = Arrays.copyOf(roots, rootCount * 2);
+        roots[rootCount++] = encoder.encode(statement);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public byte kind(int node) {
+        return kinds[node];
+    }
+
+    /**
+     * The top level statements, decoded lazily.
+     */
+    public List<Stmt> statements() {
+        return new StmtList(roots, 0, rootCount);
+    }
+
+    public <R> R accept(int node, StmtVisitor<R> visitor) {
+        return stmt(node).accept(visitor);
+    }
+
+    public <R> R accept(int node, ExprVisitor<R> visitor) {
+        return expr(node).accept(visitor);
+    }
+
+    public Stmt stmt(int node) {
+        if (node == NONE)
+            return null;
+        Object cached = cached(node);
+        if (cached != null)
+            return (Stmt) cached;
+
+        Stmt stmt = switch (kinds[node]) {
+            case BLOCK -> new Block(stmtList(a[node]));
+            case EXPRESSION -> new Expression(expr(a[node]));
+            case FUNCTION -> new Function(token(a[node]), tokenList(b[node]), stmtList(c[node]));
+            case IF -> new If(expr(a[node]), stmt(b[node]), stmt(c[node]));
+            case PRINT -> new Print(expr(a[node]));
+            case RETURN -> new Return(expr(a[node]));
+            case VAR -> new Var(token(a[node]), expr(b[node]));
+            case WHILE -> new While(expr(a[node]), stmt(b[node]));
+            default -> throw new IllegalArgumentException("node " + node + " is not a statement");
+        };
+        materialized[node] = stmt;
+        return stmt;
+    }
+
+    public Expr expr(int node) {
+        if (node == NONE)
+            return null;
+        Object cached = cached(node);
+        if (cached != null)
+            return (Expr) cached;
+
+        Expr expr = switch (kinds[node]) {
+            case ASSIGN -> new Assign(token(a[node]), expr(b[node]));
+            case BINARY -> new Binary(expr(a[node]), token(b[node]), expr(c[node]));
+            case CALL -> new Call(expr(a[node]), exprList(b[node]));
+            case GROUPING -> new Grouping(expr(a[node]));
+            case LITERAL -> new Literal(a[node] == NONE ? null : literals.get(a[node]));
+            case LOGICAL -> new Logical(expr(a[node]), token(b[node]), expr(c[node]));
+            case UNARY -> new Unary(token(a[node]), expr(b[node]));
+            case VARIABLE -> new Variable(token(a[node]));
+            default -> throw new IllegalArgumentException("node " + node + " is not an expression");
+        };
+        materialized[node] = expr;
+        return expr;
+    }
+
+    private Object cached(int node) {
+        if (materialized == null || materialized.length < size)
+            materialized = materialized == null ? new Object[size] : Arrays.copyOf(materialized, size);
+        return materialized[node];
+    }
+
+    private Token token(int ref) {
+        if (ref == NONE)
+            return null;
+        String lexeme = (String) literals.get(tokenLexemes[ref]);
+        Token token = new Token(TOKEN_TYPES[tokenTypes[ref]], lexeme, lexeme, tokenLines[ref]);
+        token.idx = tokenIdx[ref];
+        return token;
+    }
+
+    private List<Token> tokenList(int list) {
+        List<Token> result = new ArrayList<>(lists[list]);
+        for (int i = 1; i <= lists[list]; i++)
+            result.add(token(lists[list + i]));
+        return result;
+    }
+
+    private List<Expr> exprList(int list) {
+        List<Expr> result = new ArrayList<>(lists[list]);
+        for (int i = 1; i <= lists[list]; i++)
+            result.add(expr(lists[list + i]));
+        return result;
+    }
+
+    private List<Stmt> stmtList(int list) {
+        return new StmtList(lists, list + 1, lists[list]);
+    }
+
+    private class StmtList extends AbstractList<Stmt> {
+        private final int[] ids;
+        private final int offset, length;
+
+        StmtList(int[] ids, int offset, int length) {
+            this.ids = ids;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public Stmt get(int index) {
+            if (index < 0 || index >= length)
+                throw new IndexOutOfBoundsException(index);
+            return stmt(ids[offset + index]);
+        }
+
+        @Override
+        public int size() {
+            return length;
+        }
+    }
+
+    // ---- binary form, used by AstCache ----
+
+    // what the a/b/c slot of every kind refers to, decides how the slot is delta encoded
+    private static final byte NOTHING = 0, NODE = 1, TOKEN = 2, LITERAL_REF = 3, LIST = 4;
+    private static final byte[][] SLOTS = {
+            {TOKEN, NODE, NOTHING},         // ASSIGN
+            {NODE, TOKEN, NODE},            // BINARY
+            {NODE, LIST, NOTHING},          // CALL
+            {NODE, NOTHING, NOTHING},       // GROUPING
+            {LITERAL_REF, NOTHING, NOTHING},// LITERAL
+            {NODE, TOKEN, NODE},            // LOGICAL
+            {TOKEN, NODE, NOTHING},         // UNARY
+            {TOKEN, NOTHING, NOTHING},      // VARIABLE
+            {LIST, NOTHING, NOTHING},       // BLOCK
+            {NODE, NOTHING, NOTHING},       // EXPRESSION
+            {TOKEN, LIST, LIST},            // FUNCTION
+            {NODE, NODE, NODE},             // IF
+            {NODE, NOTHING, NOTHING},       // PRINT
+            {NODE, NOTHING, NOTHING},       // RETURN
+            {TOKEN, NODE, NOTHING},         // VAR
+            {NODE, NODE, NOTHING},          // WHILE
+    };
+
+    /**
+     * Children are always encoded before their parent, so node references are written as the
+     * (small) distance back from the parent; tokens and lists are allocated in about the same order
+     * as the nodes, they are written relative to the previous reference. Everything is a varint.
+     */
+    void write(DataOutputStream out) throws IOException {
+        writeVar(out, size);
+        out.write(kinds, 0, size);
+        int lastToken = NONE, lastList = NONE;
+        for (int node = 0; node < size; node++) {
+            byte[] slots = SLOTS[kinds[node]];
+            int[] values = {a[node], b[node], c[node]};
+            for (int slot = 0; slot < 3; slot++) {
+                int value = values[slot];
+                switch (slots[slot]) {
+                    case NODE -> writeVar(out, value == NONE ? 0 : node - value);
+                    case LITERAL_REF -> writeVar(out, value + 1);
+                    case TOKEN -> {
+                        writeVar(out, value == NONE ? 0 : zigzag(value - lastToken));
+                        if (value != NONE)
+                            lastToken = value;
+                    }
+                    case LIST -> {
+                        writeVar(out, zigzag(value - lastList));
+                        lastList = value;
+                    }
+                }
+            }
+        }
+
+        writeVar(out, listsSize);
+        for (int i = 0, previous = 0; i < listsSize; previous = lists[i++])
+            writeVar(out, zigzag(lists[i] - previous));
+
+        writeVar(out, tokenCount);
+        out.write(tokenTypes, 0, tokenCount);
+        for (int i = 0, previous = 0; i < tokenCount; previous = tokenLines[i++]) {
+            writeVar(out, tokenLexemes[i]);
+            writeVar(out, zigzag(tokenLines[i] - previous));
+            writeVar(out, tokenIdx[i]);
+        }
+
+        writeVar(out, literals.size());
+        for (Object literal : literals) {
+            if (literal instanceof Double) {
+                out.writeByte('D');
+                out.writeDouble((Double) literal);
+            } else if (literal instanceof Boolean) {
+                out.writeByte('B');
+                out.writeBoolean((Boolean) literal);
+            } else {
+                byte[] bytes = ((String) literal).getBytes(StandardCharsets.UTF_8);
+                out.writeByte('S');
+                writeVar(out, bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        writeVar(out, rootCount);
+        for (int i = 0; i < rootCount; i++)
+            writeVar(out, roots[i]);
+    }
+
+    static FlatAst read(ByteBuffer in) {
+        FlatAst ast = new FlatAst();
+        // never 0 long, the arrays keep growing by doubling when more nodes are added
+        int size = readVar(in);
+        ast.size = size;
+        ast.kinds = new byte[Math.max(size, 1)];
+        in.get(ast.kinds, 0, size);
+        ast.a = new int[ast.kinds.length];
+        ast.b = new int[ast.kinds.length];
+        ast.c = new int[ast.kinds.length];
+        int lastToken = NONE, lastList = NONE;
+        for (int node = 0; node < size; node++) {
+            byte[] slots = SLOTS[ast.kinds[node]];
+            for (int slot = 0; slot < 3; slot++) {
+                int value = switch (slots[slot]) {
+                    case NODE -> {
+                        int distance = readVar(in);
+                        yield distance == 0 ? NONE : node - distance;
+                    }
+                    case LITERAL_REF -> readVar(in) - 1;
+                    case TOKEN -> {
+                        int delta = readVar(in);
+                        if (delta == 0)
+                            yield NONE;
+                        lastToken += unzigzag(delta);
+                        yield lastToken;
+                    }
+                    case LIST -> lastList += unzigzag(readVar(in));
+                    default -> NONE;
+                };
+                (slot == 0 ? ast.a : slot == 1 ? ast.b : ast.c)[node] = value;
+            }
+        }
+
+        ast.listsSize = readVar(in);
+        ast.lists = new int[Math.max(ast.listsSize, 1)];
+        for (int i = 0, previous = 0; i < ast.listsSize; previous = ast.lists[i++])
+            ast.lists[i] = previous + unzigzag(readVar(in));
+
+        int tokenCount = readVar(in);
+        ast.tokenCount = tokenCount;
+        ast.tokenTypes = new byte[Math.max(tokenCount, 1)];
+        in.get(ast.tokenTypes, 0, tokenCount);
+        ast.tokenLexemes = new int[ast.tokenTypes.length];
+        ast.tokenLines = new int[ast.tokenTypes.length];
+        ast.tokenIdx = new int[ast.tokenTypes.length];
+        for (int i = 0, previous = 0; i < tokenCount; previous = ast.tokenLines[i++]) {
+            ast.tokenLexemes[i] = readVar(in);
+            ast.tokenLines[i] = previous + unzigzag(readVar(in));
+            ast.tokenIdx[i] = readVar(in);
+        }
+
+        int literalCount = readVar(in);
+        for (int i = 0; i < literalCount; i++) {
+            Object literal = switch (in.get()) {
+                case 'D' -> in.getDouble();
+                case 'B' -> in.get() != 0;
+                case 'S' -> {
+                    byte[] bytes = new byte[readVar(in)];
+                    in.get(bytes);
+                    yield new String(bytes, StandardCharsets.UTF_8);
+                }
+                default -> throw new IllegalArgumentException("corrupt literal table");
+            };
+            ast.pool.put(literal, ast.literals.size());
+            ast.literals.add(literal);
+        }
+
+        ast.rootCount = readVar(in);
+        ast.roots = new int[Math.max(ast.rootCount, 1)];
+        for (int i = 0; i < ast.rootCount; i++)
+            ast.roots[i] = readVar(in);
+        return ast;
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVar(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVar(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte next = in.get();
+            value |= (next & 0x7f) << shift;
+            if (next >= 0)
+                return value;
+        }
+    }
+
+    // ---- encoding ----
+
+    private int node(byte kind, int a, int b, int c) {
+        if (size == kinds.length) {
+            kinds = Arrays.copyOf(kinds, size * 2);
+            this.a = Arrays.copyOf(this.a, size * 2);
+            this.b = Arrays.copyOf(this.b, size * 2);
+            this.c = Arrays.copyOf(this.c, size * 2);
+        }
+        kinds[size] = kind;
+        this.a[size] = a;
+        this.b[size] = b;
+        this.c[size] = c;
+        return size++;
+    }
+
+    private int list(int[] elements) {
+        while (listsSize + elements.length + 1 > lists.length)
+            lists = Arrays.copyOf(lists, lists.length * 2);
+        int list = listsSize;
+        lists[listsSize++] = elements.length;
+        System.arraycopy(elements, 0, lists, listsSize, elements.length);
+        listsSize += elements.length;
+        return list;
+    }
+
+    // only names and operators end up in the AST, their literal is always the lexeme
+    private int tokenRef(Token token) {
+        if (token == null)
+            return NONE;
+        if (tokenCount == tokenTypes.length) {
+            tokenTypes = Arrays.copyOf(tokenTypes, tokenCount * 2);
+            tokenLexemes = Arrays.copyOf(tokenLexemes, tokenCount * 2);
+            tokenLines = Arrays.copyOf(tokenLines, tokenCount * 2);
+            tokenIdx = Arrays.copyOf(tokenIdx, tokenCount * 2);
+        }
+        tokenTypes[tokenCount] = (byte) token.type.ordinal();
+        tokenLexemes[tokenCount] = pooled(token.lexeme);
+        tokenLines[tokenCount] = token.line;
+        tokenIdx[tokenCount] = token.idx;
+        return tokenCount++;
+    }
+
+    private int pooled(Object value) {
+        return pool.computeIfAbsent(value, v -> {
+            literals.add(v);
+            return literals.size() - 1;
+        });
+    }
+
+    private class Encoder implements ExprVisitor<Integer>, StmtVisitor<Integer> {
+        int encode(Stmt stmt) {
+            return stmt == null ? NONE : stmt.accept(this);
+        }
+
+        int encode(Expr expr) {
+            return expr == null ? NONE : expr.accept(this);
+        }
+
+        private int encodeAll(List<Stmt> statements) {
+            return list(statements.stream().mapToInt(this::encode).toArray());
+        }
+
+        @Override
+        public Integer visitAssignExpr(Assign expr) {
+            return node(ASSIGN, tokenRef(expr.name), encode(expr.value), NONE);
+        }
+
+        @Override
+        public Integer visitBinaryExpr(Binary expr) {
+            return node(BINARY, encode(expr.left), tokenRef(expr.operator), encode(expr.right));
+        }
+
+        @Override
+        public Integer visitCallExpr(Call expr) {
+            int callee = encode(expr.callee);
+            return node(CALL, callee, list(expr.arguments.stream().mapToInt(this::encode).toArray()), NONE);
+        }
+
+        @Override
+        public Integer visitGroupingExpr(Grouping expr) {
+            return node(GROUPING, encode(expr.expression), NONE, NONE);
+        }
+
+        @Override
+        public Integer visitLiteralExpr(Literal expr) {
+            if (expr.value == null)
+                return node(LITERAL, NONE, NONE, NONE);
+            return node(LITERAL, pooled(expr.value), NONE, NONE);
+        }
+
+        @Override
+        public Integer visitLogicalExpr(Logical expr) {
+            return node(LOGICAL, encode(expr.left), tokenRef(expr.operator), encode(expr.right));
+        }
+
+        @Override
+        public Integer visitUnaryExpr(Unary expr) {
+            return node(UNARY, tokenRef(expr.operator), encode(expr.right), NONE);
+        }
+
+        @Override
+        public Integer visitVariableExpr(Variable expr) {
+            return node(VARIABLE, tokenRef(expr.name), NONE, NONE);
+        }
+
+        @Override
+        public Integer visitBlockStmt(Block stmt) {
+            return node(BLOCK, encodeAll(stmt.statements), NONE, NONE);
+        }
+
+        @Override
+        public Integer visitExpressionStmt(Expression stmt) {
+            return node(EXPRESSION, encode(stmt.expression), NONE, NONE);
+        }
+
+        @Override
+        public Integer visitFunctionStmt(Function stmt) {
+            int name = tokenRef(stmt.name);
+            int parameters = list(stmt.parameters.stream().mapToInt(FlatAst.this::tokenRef).toArray());
+            return node(FUNCTION, name, parameters, encodeAll(stmt.body));
+        }
+
+        @Override
+        public Integer visitIfStmt(If stmt) {
+            return node(IF, encode(stmt.condition), encode(stmt.thenBranch), encode(stmt.elseBranch));
+        }
+
+        @Override
+        public Integer visitPrintStmt(Print stmt) {
+            return node(PRINT, encode(stmt.expression), NONE, NONE);
+        }
+
+        @Override
+        public Integer visitReturnStmt(Return stmt) {
+            return node(RETURN, encode(stmt.value), NONE, NONE);
+        }
+
+        @Override
+        public Integer visitVarStmt(Var stmt) {
+            return node(VAR, tokenRef(stmt.name), encode(stmt.initializer), NONE);
+        }
+
+        @Override
+        public Integer visitWhileStmt(While stmt) {
+            return node(WHILE, encode(stmt.condition), encode(stmt.body), NONE);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.thecout.lox.Parser;
+
+import com.thecout.lox.IncrementalScanner;
+import com.thecout.lox.Parser.Stmts.Stmt;
+import com.thecout.lox.Token;
+import com.thecout.lox.TokenBuffer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the AST of an edited source up to date. The program is cut into top level segments
+ * like in {@link Parser#parseParallel()}; after an edit only the segments that contain re-lexed tokens
+ * are parsed again. All other statements are reused by identity, so caches keyed on AST nodes stay valid.
+ */
+public class IncrementalParser {
+    private final IncrementalScanner scanner;
+    private List<Segment> segments = new ArrayList<>();
+    private int reparsed = 0;
+
+    private static class Segment {
+        final int start, end;
+        final List<Stmt> statements;
+        final List<ParserError> errors;
+
+        Segment(int start, int end, List<Stmt> statements, List<ParserError> errors) {
+            this.start = start;
+            this.end = end;
+            this.statements = statements;
+            this.errors = errors;
+        }
+    }
+
+    public IncrementalParser(String source) {
+        this.scanner = new IncrementalScanner(source);
+        reparse(scanner.tokens(), 0, 0, 0);
+    }
+
+    public String source() {
+        return scanner.source();
+    }
+
+    public List<Stmt> statements() {
+        List<Stmt> statements = new ArrayList<>();
+        for (Segment segment : segments)
+            statements.addAll(segment.statements);
+        return statements;
+    }
+
+    public List<ParserError> getErrors() {
+        List<ParserError> errors = new ArrayList<>();
+        for (Segment segment : segments)
+            errors.addAll(segment.errors);
+        return errors;
+    }
+
+    /**
+     * Number of segments that had to be parsed again by the last edit.
+     */
+    public int reparsedSegments() {
+        return reparsed;
+    }
+
+    public List<Stmt> edit(int offset, int removed, String inserted) {
+        int oldSize = scanner.tokenCount();
+        int[] lines = scanner.edit(offset, removed, inserted);
+        List<Token> tokens = scanner.tokens();
+
+        // [0, head) are untouched, [tail, size) are untouched but moved by size - oldSize
+        int head = firstTokenAfter(tokens, lines[0] - 1);
+        int tail = firstTokenAfter(tokens, lines[1]);
+        reparse(tokens, head, tail, tokens.size() - oldSize);
+
+        return statements();
+    }
+
+    private void reparse(List<Token> tokens, int head, int tail, int shift) {
+        TokenBuffer buffer = TokenBuffer.of(tokens);
+        int[] bounds = Parser.topLevelBoundaries(buffer, 0, buffer.size());
+
+        Map<Integer, Segment> old = new HashMap<>();
+        for (Segment segment : segments)
+            old.put(segment.start, segment);
+
+        List<Segment> updated = new ArrayList<>(bounds.length);
+        reparsed = 0;
+        for (int k = 0; k + 1 < bounds.length; k++) {
+            int start = bounds[k], end = bounds[k + 1];
+
+            Segment reused = null;
+            if (end <= head)
+                reused = old.get(start);
+            else if (start >= tail)
+                reused = old.get(start - shift);
+            if (reused != null && reused.end + (start >= tail ? shift : 0) == end) {
+                updated.add(new Segment(start, end, reused.statements, reused.errors));
+                continue;
+            }
+
+            Parser parser = new Parser(buffer, start, end);
+            List<Stmt> statements = parser.parse();
+            updated.add(new Segment(start, end, statements, parser.getErrors()));
+            reparsed++;
+        }
+        segments = updated;
+    }
+
+    // binary search, tokens are ordered by line
+    private static int firstTokenAfter(List<Token> tokens, int line) {
+        int low = 0, high = tokens.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (tokens.get(mid).line <= line)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+}
@@ -4,10 +4,16 @@ package com.thecout.lox.Parser;
 import com.thecout.lox.Parser.Expr.*;
 import com.thecout.lox.Parser.Stmts.*;
 import com.thecout.lox.Token;
+import com.thecout.lox.TokenBuffer;
 import com.thecout.lox.TokenType;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static com.thecout.lox.TokenType.*;
 
@@ -15,26 +21,125 @@ public class Parser {
     private static class ParseError extends RuntimeException {
     }
 
-    private final List<Token> tokens;
+    private final TokenBuffer tokens;
+    private final int end;
     private int current = 0;
+    private final List<ParserError> errors = new ArrayList<>();
+    // result of a segment parser in parseParallel
+    private final List<Stmt> statements = new ArrayList<>();
 
     public Parser(List<Token> tokens) {
+        this(TokenBuffer.of(tokens));
+    }
+
+    /**
+     * Parses straight from the compact token representation, Token objects are only
+     * created for the tokens that end up in the AST or in an error message.
+     */
+    public Parser(TokenBuffer tokens) {
+        this(tokens, 0, tokens.size());
+    }
+
+    // parses only the tokens in [start, end), used for the segments of parseParallel and IncrementalParser
+    Parser(TokenBuffer tokens, int start, int end) {
         this.tokens = tokens;
+        this.current = start;
+        this.end = end;
     }
 
     public List<Stmt> parse() {
         List<Stmt> statements = new ArrayList<>();
-        while (!isAtEnd()) {
-            // System.out.println(current);
-            try {
-                statements.add(declaration());
-            } catch (ParserError e) {
-                e.printStackTrace();
-                break;
+        parse(statements::add);
+        return statements;
+    }
+
+    /**
+     * Parses into the array based {@link FlatAst}, every top level declaration is encoded
+     * right after it was parsed.
+     */
+    public FlatAst parseFlat() {
+        FlatAst ast = new FlatAst();
+        parse(ast::add);
+        return ast;
+    }
+
+    /**
+     * Parses the top level declarations on several workers. A pre-pass over the token types
+     * cuts the program where a top level statement ends, the segments are parsed independently
+     * and the results are concatenated in source order.
+     */
+    public List<Stmt> parseParallel() {
+        return parseParallel(ForkJoinPool.commonPool());
+    }
+
+    public List<Stmt> parseParallel(ForkJoinPool pool) {
+        int[] bounds = topLevelBoundaries(tokens, current, end);
+        int segments = bounds.length - 1;
+        int batches = Math.min(segments, pool.getParallelism() * 4);
+        if (batches < 2)
+            return parse();
+
+        List<Parser> parsers = pool.submit(() -> IntStream.range(0, batches).parallel()
+                .mapToObj(k -> {
+                    Parser parser = new Parser(tokens, bounds[k * segments / batches], bounds[(k + 1) * segments / batches]);
+                    parser.parse(parser.statements::add);
+                    return parser;
+                })
+                .collect(Collectors.toList())).join();
+
+        List<Stmt> statements = new ArrayList<>();
+        for (Parser parser : parsers) {
+            statements.addAll(parser.statements);
+            errors.addAll(parser.errors);
+        }
+        return statements;
+    }
+
+    /**
+     * Token indices where a top level statement starts: after a ';' or a '}' at brace and paren
+     * depth 0, unless an 'else' follows. Returns just [start, end] when the braces don't balance.
+     */
+    static int[] topLevelBoundaries(TokenBuffer tokens, int start, int end) {
+        List<Integer> bounds = new ArrayList<>();
+        bounds.add(start);
+        int braces = 0, parens = 0;
+        for (int i = start; i < end && tokens.type(i) != EOF; i++) {
+            switch (tokens.type(i)) {
+                case LEFT_PAREN -> parens++;
+                case RIGHT_PAREN -> parens--;
+                case LEFT_BRACE -> braces++;
+                case RIGHT_BRACE -> braces--;
             }
+            if (braces < 0 || parens < 0)
+                return new int[]{start, end};
+
+            TokenType type = tokens.type(i);
+            if ((type == SEMICOLON || type == RIGHT_BRACE) && braces == 0 && parens == 0
+                    && i + 1 < end && tokens.type(i + 1) != ELSE)
+                bounds.add(i + 1);
         }
+        if (braces != 0 || parens != 0)
+            return new int[]{start, end};
 
-        return statements;
+        if (bounds.get(bounds.size() - 1) != end)
+            bounds.add(end);
+        return bounds.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * All syntax errors of the last parse, in source order. Parsing does not stop at the first one:
+     * the broken declaration is skipped up to the next statement boundary and parsing goes on.
+     */
+    public List<ParserError> getErrors() {
+        return errors;
+    }
+
+    private void parse(Consumer<Stmt> statements) {
+        while (!isAtEnd()) {
+            Stmt statement = declaration();
+            if (statement != null)
+                statements.accept(statement);
+        }
     }
 
     private Expr expression() throws ParserError {
@@ -44,15 +149,38 @@ public class Parser {
         return assignment();
     }
 
-    private Stmt declaration() throws ParserError {
-
+    private Stmt declaration() {
+        try {
             if (match(FUN))
                 return function();
             if (match(VAR))
                 return varDeclaration();
 
             return statement();
+        } catch (ParserError e) {
+            errors.add(e);
+            synchronize();
+            return null;
+        }
+    }
+
+    /**
+     * Panic mode: skips tokens until a statement is likely to start,
+     * i.e. after a ';', before a keyword that starts a statement or before a '}' that closes the block.
+     */
+    private void synchronize() {
+        advance();
+        while (!isAtEnd()) {
+            if (tokens.type(current - 1) == SEMICOLON)
+                return;
 
+            switch (tokens.type(current)) {
+                case FUN, VAR, FOR, IF, WHILE, PRINT, RETURN, RIGHT_BRACE:
+                    return;
+            }
+
+            advance();
+        }
     }
 
     private Stmt statement() throws ParserError {
@@ -68,39 +196,36 @@ public class Parser {
 
     private Stmt forStatement() throws ParserError {
         consume(LEFT_PAREN, "Expected '('");
-        Expr condition = null;
-        int idx = current;
-
-        // first parameters
-        try{
-            consume(VAR, "Expected 'var'");
-            varDeclaration();
-            idx = current;
-        }catch (Exception e){
-            current = idx;
-            try{
-                expressionStatement();
-                idx = current;
-            }catch (Exception e2){
-                throw error(peek(), "Syntax Error");
-            }
-        }
-        // consume(SEMICOLON, "Expected ';'");
 
-        // second parameters
-        condition = expression();
-        idx = current;
+        // first parameters, decided by the next token alone
+        Stmt initializer = null;
+        if (match(VAR))
+            initializer = varDeclaration();
+        else if (!match(SEMICOLON))
+            initializer = expressionStatement();
 
+        // second parameters
+        Expr condition = new Literal(true);
+        if (!check(SEMICOLON))
+            condition = expression();
         consume(SEMICOLON, "Expected ';'");
 
         // third parameters
-        expression();
-
+        Expr increment = null;
+        if (!check(RIGHT_PAREN))
+            increment = expression();
         consume(RIGHT_PAREN, "Expected ')'");
 
         Stmt body = statement();
 
-        return new While(condition, body);
+        // for is just sugar: { initializer; while (condition) { body; increment; } }
+        if (increment != null)
+            body = new Block(Arrays.asList(body, new Expression(increment)));
+        body = new While(condition, body);
+        if (initializer != null)
+            body = new Block(Arrays.asList(initializer, body));
+
+        return body;
     }
 
     private Stmt ifStatement() throws ParserError {
@@ -130,7 +255,8 @@ public class Parser {
     }
 
     private Stmt varDeclaration() throws ParserError {
-        Token name = consume(IDENTIFIER, "Expected identifier");
+        consume(IDENTIFIER, "Expected identifier");
+        Token name = previous();
         Expr expr = null;
         if(match(EQUAL))
             expr = expression();
@@ -158,12 +284,13 @@ public class Parser {
     }
 
     private Function function() throws ParserError {
-        Token name = consume(IDENTIFIER, "Expected identifier");
+        consume(IDENTIFIER, "Expected identifier");
+        Token name = previous();
         consume(LEFT_PAREN, "Expected '('");
         List<Token> parameters = new ArrayList<>();
 
-        while (peek().type == IDENTIFIER){
-            parameters.add(advance());
+        while (match(IDENTIFIER)){
+            parameters.add(previous());
 
             if(check(COMMA))
                 advance();
@@ -178,8 +305,11 @@ public class Parser {
 
     private List<Stmt> block() throws ParserError {
         List<Stmt> statements = new ArrayList<>();
-        while(!check(RIGHT_BRACE))
-            statements.add(declaration());
+        while(!check(RIGHT_BRACE) && !isAtEnd()) {
+            Stmt statement = declaration();
+            if (statement != null)
+                statements.add(statement);
+        }
 
         consume(RIGHT_BRACE, "Expected '}'");
 
@@ -187,20 +317,14 @@ public class Parser {
     }
 
     private Expr assignment() throws ParserError {
-        Expr expr = null;
-        Token name = null;
-        int idx = current;
-        try{
-            name = consume(IDENTIFIER, "Expected identifier " + peek().lexeme);
-            consume(EQUAL, "Expected '='" + peek().lexeme);
-            expr = assignment();
-        }catch(Exception e){
-            name = null;
-            current = idx;
-            // System.out.println(peek().lexeme);
-            expr = or();
+        if (check(IDENTIFIER) && lookahead(1) == EQUAL) {
+            advance();
+            Token name = previous();
+            advance();
+            return new Assign(name, assignment());
         }
-        return new Assign(name, expr);
+
+        return or();
     }
 
     private Expr or() throws ParserError {
@@ -279,21 +403,12 @@ public class Parser {
     // -----
 
     private Expr unary() throws ParserError {
-        Token operator = null;
-
-        Expr expr = null;
-        int idx = current;
-        try {
-            if(check(BANG)) operator = advance();
-            if(check(MINUS)) operator = advance();
-            if(operator == null)
-                throw error(peek(), "Expected '!' or '-'");
-            expr = unary();
-        }catch (Exception e){
-            current = idx;
-            expr = call();
+        if (match(BANG) || match(MINUS)) {
+            Token operator = previous();
+            return new Unary(operator, unary());
         }
-        return new Unary(operator, expr);
+
+        return call();
     }
 
     private Expr call() throws ParserError {
@@ -301,7 +416,7 @@ public class Parser {
         List<Expr> args = new ArrayList<>();
 
         if(!match(LEFT_PAREN))
-            return new Call(primary, args);
+            return primary;
 
         if(match(RIGHT_PAREN))
             return new Call(primary, args);
@@ -321,12 +436,12 @@ public class Parser {
     }
 
     private Expr primary() throws ParserError {
-        if (check(TRUE)) return new Literal(advance().literal);
-        if (check(FALSE)) return new Literal(advance().literal);
-        if (check(NIL)) return new Literal(advance().literal);
-        if (check(NUMBER)) return new Literal(advance().literal);
-        if (check(STRING)) return new Literal(advance().literal);
-        if (check(IDENTIFIER)) return new Variable(advance());
+        if (match(TRUE)) return new Literal(true);
+        if (match(FALSE)) return new Literal(false);
+        if (match(NIL)) return new Literal(null);
+        if (match(NUMBER)) return new Literal(tokens.literal(current - 1));
+        if (match(STRING)) return new Literal(tokens.literal(current - 1));
+        if (match(IDENTIFIER)) return new Variable(previous());
         if (match(LEFT_PAREN)) {
             Expr expr = expression();
             consume(RIGHT_PAREN, "Expected ')'");
@@ -346,32 +461,44 @@ public class Parser {
         return false;
     }
 
-    private Token consume(TokenType type, String message) throws ParserError {
-        if (check(type)) return advance();
+    private void consume(TokenType type, String message) throws ParserError {
+        if (check(type)) {
+            advance();
+            return;
+        }
 
         throw error(peek(), message);
     }
 
     private boolean check(TokenType tokenType) {
         if (isAtEnd()) return false;
-        return peek().type == tokenType;
+        return tokens.type(current) == tokenType;
     }
 
-    private Token advance() {
+    private void advance() {
         if (!isAtEnd()) current++;
-        return previous();
+    }
+
+    /**
+     * Type of the token n positions ahead, never looks past EOF.
+     */
+    private TokenType lookahead(int n) {
+        for (int i = current; i < current + n; i++)
+            if (i >= end || tokens.type(i) == EOF)
+                return EOF;
+        return current + n < end ? tokens.type(current + n) : EOF;
     }
 
     private boolean isAtEnd() {
-        return peek().type == EOF;
+        return current >= end || tokens.type(current) == EOF;
     }
 
     private Token peek() {
-        return tokens.get(current);
+        return tokens.token(current);
     }
 
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.token(current - 1);
     }
 
     private ParserError error(Token token, String message) {
@@ -8,7 +8,9 @@ public class ParserError extends Exception {
     }
 
     public ParserError(Token token, String message) {
-        super(String.format("line %d.%d: %s, got: %s (%s)\n", token.line, token.idx, message, token.type, token.lexeme));
+        // errors are collected as diagnostics, a stack trace would only cost time
+        super(String.format("line %d.%d: %s, got: %s (%s)\n", token.line, token.idx, message, token.type, token.lexeme),
+                null, false, false);
         // System.out.printf("line %d: %s, got: %s (%s)\n", token.line, message, token.type, token.lexeme);
     }
 }
@@ -9,6 +9,8 @@ public class Block extends Stmt {
     }
 
     public final List<Stmt> statements;
+    // set by the Resolver: number of slots the block's environment needs, -1 if it runs in the enclosing one
+    public int locals = 0;
 
     @Override
     public String print() {
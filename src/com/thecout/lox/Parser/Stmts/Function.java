@@ -17,6 +17,9 @@ public class Function extends Stmt {
     public final Token name;
     public final List<Token> parameters;
     public final List<Stmt> body;
+    // set by the Resolver: slot of the function name in the declaring environment (-1 means global)
+    // and the number of slots a call needs for parameters and locals
+    public int slot = -1, locals = 0;
 
     @Override
     public String print() {
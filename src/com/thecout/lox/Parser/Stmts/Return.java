@@ -8,6 +8,8 @@ public class Return extends Stmt {
     }
 
     public final Expr value;
+    // set by the Resolver: the value is a call and the return is inside a function
+    public boolean tailCall = false;
 
     @Override
     public String print() {
@@ -11,6 +11,8 @@ public class Var extends Stmt {
 
     public final Token name;
     public final Expr initializer;
+    // set by the Resolver: slot of the variable in its environment, -1 means global
+    public int slot = -1;
 
     @Override
     public String print() {
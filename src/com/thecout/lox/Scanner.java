@@ -2,9 +2,13 @@ package com.thecout.lox;
 
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
-import static com.thecout.lox.TokenType.EOF;
+import static com.thecout.lox.TokenType.*;
 
 public class Scanner {
 
@@ -12,214 +16,337 @@ public class Scanner {
     private final String source;
     private final List<Token> tokens = new ArrayList<>();
 
+    // below this many characters per chunk forking costs more than it saves
+    private static final int MIN_CHUNK_SIZE = 1 << 16;
+
+    // lexemes of all tokens whose text is fixed, so we don't have to allocate a substring for them
+    private static final String[] FIXED_LEXEMES = new String[TokenType.values().length];
+
+    static {
+        for (TokenType type : TokenType.values())
+            FIXED_LEXEMES[type.ordinal()] = switch (type) {
+                case LEFT_PAREN -> "(";
+                case RIGHT_PAREN -> ")";
+                case LEFT_BRACE -> "{";
+                case RIGHT_BRACE -> "}";
+                case COMMA -> ",";
+                case DOT -> ".";
+                case MINUS -> "-";
+                case PLUS -> "+";
+                case SEMICOLON -> ";";
+                case SLASH -> "/";
+                case STAR -> "*";
+                case BANG -> "!";
+                case BANG_EQUAL -> "!=";
+                case EQUAL -> "=";
+                case EQUAL_EQUAL -> "==";
+                case GREATER -> ">";
+                case GREATER_EQUAL -> ">=";
+                case LESS -> "<";
+                case LESS_EQUAL -> "<=";
+                case IDENTIFIER, STRING, NUMBER, EOF, COMMENT -> null;
+                default -> type.name().toLowerCase();
+            };
+    }
+
 
     public Scanner(String source) {
         this.source = source;
     }
 
-    private boolean isComment = false;
-
 
     public List<Token> scanLine(String line, int lineNumber) {
         List<Token> returnToken = new ArrayList<>();
+        scanRange(line, 0, line.length(), lineNumber, returnToken);
+        return returnToken;
+    }
 
-        String temp = "";
-        Token token = null;
-        Token newToken = null;
-        char[] chars = line.toCharArray();
-
-        for (int i = 0; i < chars.length; i++) {
-
-            temp += chars[i];
-            token = newToken;
-            newToken = getToken(temp, lineNumber);
-
-            // reading the line any further is worthless
-            if(newToken == null && isComment){
-                token = new Token(TokenType.COMMENT, temp, temp, lineNumber);
-                returnToken.add(token);
-                break;
-            }
-
-
-            // bei temp = "12." kackt er ab, deshalb diese IF
-            if(token != null && token.type == TokenType.NUMBER && newToken == null && chars[i] == '.'){
-                temp += chars[++i];
-                newToken = getToken(temp, lineNumber);
-            }
-
-            // if new token is null -> the last token was the greatest possible match -> add last token
-            if(newToken == null && token != null){
-                token.idx = i;
-                returnToken.add(token);
-                temp = "";
-
-                // if there is no whitespace between tokens e.g. printSum(a -> go back and read the last char again!
-                if(chars[i] != ' ')
-                    i--;
-            }
-
-            //on end of line:
-            if(i == chars.length - 1 && newToken != null){
-                newToken.idx = i;
-                returnToken.add(newToken);
-            }
-
-        }
+    public List<Token> scan() {
+        int line = scanRange(source, 0, source.length(), 1, tokens);
 
-        isComment = false;
+        // a trailing newline does not start a new line
+        if (source.endsWith("\n"))
+            line--;
+        tokens.add(new Token(EOF, "", "", line));
 
-        return returnToken;
+        return tokens;
     }
 
-    private Token getToken(String temp, int lineNumber) {
+    /**
+     * Same tokens as {@link #scan()}, but the source is cut into chunks at line boundaries
+     * and the chunks are lexed in parallel. No scanner state survives a newline,
+     * so every chunk only needs to know the line number it starts on.
+     */
+    public List<Token> scanParallel() {
+        return scanParallel(ForkJoinPool.commonPool());
+    }
 
-        Token token;
+    public List<Token> scanParallel(ForkJoinPool pool) {
+        int chunks = Math.min(pool.getParallelism() * 4, source.length() / MIN_CHUNK_SIZE);
+        if (chunks < 2)
+            return scan();
 
-        if(temp.equals("//")) {
-            isComment = true;
-            return null;
+        int[] bounds = new int[chunks + 1];
+        for (int k = 1; k < chunks; k++) {
+            int newline = source.indexOf('\n', Math.max(bounds[k - 1], k * (source.length() / chunks)));
+            bounds[k] = newline < 0 ? source.length() : newline + 1;
+        }
+        bounds[chunks] = source.length();
+
+        // first pass: the line every chunk starts on
+        int[] startLines = pool.submit(() -> IntStream.range(0, chunks).parallel()
+                .map(k -> countLines(bounds[k], bounds[k + 1]))
+                .toArray()).join();
+        int line = 1;
+        for (int k = 0; k < chunks; k++) {
+            int newlines = startLines[k];
+            startLines[k] = line;
+            line += newlines;
         }
 
-        if(temp.matches("\\d+([.]\\d+)?"))
-            return new Token(TokenType.NUMBER, temp, Double.parseDouble(temp), lineNumber);
-
-        if(temp.matches("\".*\""))
-            return new Token(TokenType.STRING, temp, temp.substring(1, temp.length()-1), lineNumber);
-
-        token = getKeywordToken(temp, lineNumber);
-        if(token != null)
-            return token;
+        // second pass: lex every chunk with its own line number
+        List<List<Token>> parts = pool.submit(() -> IntStream.range(0, chunks).parallel()
+                .mapToObj(k -> {
+                    List<Token> part = new ArrayList<>();
+                    scanRange(source, bounds[k], bounds[k + 1], startLines[k], part);
+                    return part;
+                })
+                .collect(Collectors.toList())).join();
 
-        if(temp.matches("([a-z]|_)([a-z]|[A-Z]|_|\\d)*"))
-            return new Token(TokenType.IDENTIFIER, temp, temp, lineNumber);
+        for (List<Token> part : parts)
+            tokens.addAll(part);
 
+        if (source.endsWith("\n"))
+            line--;
+        tokens.add(new Token(EOF, "", "", line));
 
-        token = getSingleCharacterToken(temp, lineNumber);
-        if(token != null)
-            return token;
+        return tokens;
+    }
 
-        token = getOneOrTwoCharacterToken(temp, lineNumber);
-        if(token != null)
-            return token;
+    private int countLines(int start, int end) {
+        int newlines = 0;
+        for (int i = start; i < end; i++)
+            if (source.charAt(i) == '\n')
+                newlines++;
+        return newlines;
+    }
 
+    /**
+     * Scans into the compact struct-of-arrays representation, no Token objects are created.
+     */
+    public TokenBuffer scanBuffer() {
+        TokenBuffer buffer = new TokenBuffer(source);
+        int line = scanRange(source, 0, source.length(), 1, buffer::add);
 
-        return null;
+        if (source.endsWith("\n"))
+            line--;
+        buffer.add(EOF, source.length(), source.length(), line, 0);
+        buffer.trim();
 
+        return buffer;
+    }
 
+    /**
+     * Receives every token the DFA recognises as [start, end) offsets into the source.
+     */
+    interface Sink {
+        void token(TokenType type, int start, int end, int line, int idx);
+    }
 
+    static int scanRange(String src, int start, int end, int line, Collection<Token> out) {
+        return scanRange(src, start, end, line, (type, from, to, l, idx) -> {
+            String lexeme = FIXED_LEXEMES[type.ordinal()];
+            if (lexeme == null)
+                lexeme = src.substring(from, to);
+            Token token = new Token(type, lexeme, literal(src, type, from, to, lexeme), l);
+            token.idx = idx;
+            out.add(token);
+        });
+    }
 
+    static Object literal(String src, TokenType type, int start, int end, String lexeme) {
+        return switch (type) {
+            case NUMBER -> Double.parseDouble(lexeme);
+            case STRING -> src.substring(start + 1, end - 1);
+            default -> lexeme;
+        };
     }
 
+    static String fixedLexeme(TokenType type) {
+        return FIXED_LEXEMES[type.ordinal()];
+    }
 
-    private Token getSingleCharacterToken(String temp, int lineNum) {
+    /**
+     * Single pass over src[start, end): a hand coded DFA where the switch on the current
+     * character picks the state and every state runs until its token is complete.
+     * Whitespace and comments are skipped, idx is the column the token ends at.
+     *
+     * @return the line number the scan stopped on
+     */
+    static int scanRange(String src, int start, int end, int line, Sink out) {
+        int lineStart = start;
+        int i = start;
+
+        while (i < end) {
+            char c = src.charAt(i);
+            int tokenStart = i++;
+            TokenType type;
+
+            switch (c) {
+                case '\n':
+                    line++;
+                    lineStart = i;
+                    continue;
+                case ' ', '\t', '\r':
+                    continue;
+                case '(':
+                    type = LEFT_PAREN;
+                    break;
+                case ')':
+                    type = RIGHT_PAREN;
+                    break;
+                case '{':
+                    type = LEFT_BRACE;
+                    break;
+                case '}':
+                    type = RIGHT_BRACE;
+                    break;
+                case ',':
+                    type = COMMA;
+                    break;
+                case '.':
+                    type = DOT;
+                    break;
+                case '-':
+                    type = MINUS;
+                    break;
+                case '+':
+                    type = PLUS;
+                    break;
+                case ';':
+                    type = SEMICOLON;
+                    break;
+                case '*':
+                    type = STAR;
+                    break;
+                case '!':
+                    type = BANG;
+                    if (next(src, i, end, '=')) {
+                        type = BANG_EQUAL;
+                        i++;
+                    }
+                    break;
+                case '=':
+                    type = EQUAL;
+                    if (next(src, i, end, '=')) {
+                        type = EQUAL_EQUAL;
+                        i++;
+                    }
+                    break;
+                case '>':
+                    type = GREATER;
+                    if (next(src, i, end, '=')) {
+                        type = GREATER_EQUAL;
+                        i++;
+                    }
+                    break;
+                case '<':
+                    type = LESS;
+                    if (next(src, i, end, '=')) {
+                        type = LESS_EQUAL;
+                        i++;
+                    }
+                    break;
+                case '/':
+                    if (next(src, i, end, '/')) {
+                        // comment: reading the line any further is worthless
+                        while (i < end && src.charAt(i) != '\n')
+                            i++;
+                        continue;
+                    }
+                    type = SLASH;
+                    break;
+                case '"':
+                    while (i < end && src.charAt(i) != '"' && src.charAt(i) != '\n')
+                        i++;
+                    // unterminated strings are dropped, the same way the line based scanner did
+                    if (i == end || src.charAt(i) != '"')
+                        continue;
+                    i++;
+                    out.token(STRING, tokenStart, i, line, i - lineStart);
+                    continue;
+                default:
+                    if (isDigit(c)) {
+                        while (i < end && isDigit(src.charAt(i)))
+                            i++;
+                        // "12." is a number followed by a dot, only "12.3" has a fraction
+                        if (i + 1 < end && src.charAt(i) == '.' && isDigit(src.charAt(i + 1))) {
+                            i++;
+                            while (i < end && isDigit(src.charAt(i)))
+                                i++;
+                        }
+                        out.token(NUMBER, tokenStart, i, line, i - lineStart);
+                        continue;
+                    }
+                    if (isAlpha(c)) {
+                        while (i < end && isAlphaNumeric(src.charAt(i)))
+                            i++;
+                        type = keyword(src, tokenStart, i - tokenStart);
+                        break;
+                    }
+                    // unknown characters are skipped
+                    continue;
+            }
 
-        switch (temp){
-            // Single-character tokens.
-            case "(":
-                return new Token(TokenType.LEFT_PAREN, temp, temp, lineNum);
-            case ")":
-                return new Token(TokenType.RIGHT_PAREN, temp, temp, lineNum);
-            case "{":
-                return new Token(TokenType.LEFT_BRACE, temp, temp, lineNum);
-            case "}":
-                return new Token(TokenType.RIGHT_BRACE, temp, temp, lineNum);
-            case ",":
-                return new Token(TokenType.COMMA, temp, temp, lineNum);
-            case ".":
-                return new Token(TokenType.DOT, temp, temp, lineNum);
-            case "-":
-                return new Token(TokenType.MINUS, temp, temp, lineNum);
-            case "+":
-                return new Token(TokenType.PLUS, temp, temp, lineNum);
-            case ";":
-                return new Token(TokenType.SEMICOLON, temp, temp, lineNum);
-            case "/":
-                return new Token(TokenType.SLASH, temp, temp, lineNum);
-            case "*":
-                return new Token(TokenType.STAR, temp, temp, lineNum);
-            default:
-                return null;
+            out.token(type, tokenStart, i, line, i - lineStart);
         }
-    }
 
-    private Token getOneOrTwoCharacterToken(String temp, int lineNum) {
-
-        switch (temp){
-            // One or two character tokens.
-            case "!=":
-                return new Token(TokenType.BANG_EQUAL, temp, temp, lineNum);
-            case "!":
-                return new Token(TokenType.BANG, temp, temp, lineNum);
-            case "==":
-                return new Token(TokenType.EQUAL_EQUAL, temp, temp, lineNum);
-            case "=":
-                return new Token(TokenType.EQUAL, temp, temp, lineNum);
-            case ">=":
-                return new Token(TokenType.GREATER_EQUAL, temp, temp, lineNum);
-            case ">":
-                return new Token(TokenType.GREATER, temp, temp, lineNum);
-            case "<=":
-                return new Token(TokenType.LESS_EQUAL, temp, temp, lineNum);
-            case "<":
-                return new Token(TokenType.LESS, temp, temp, lineNum);
-            default:
-                return null;
-        }
+        return line;
     }
 
-
-    private Token getKeywordToken(String temp, int lineNum) {
-
-        switch (temp){
-            // One or two character tokens.
-            case "and":
-                return new Token(TokenType.AND, temp, temp, lineNum);
-            case "else":
-                return new Token(TokenType.ELSE, temp, temp, lineNum);
-            case "false":
-                return new Token(TokenType.FALSE, temp, temp, lineNum);
-            case "fun":
-                return new Token(TokenType.FUN, temp, temp, lineNum);
-            case "for":
-                return new Token(TokenType.FOR, temp, temp, lineNum);
-            case "if":
-                return new Token(TokenType.IF, temp, temp, lineNum);
-            case "nil":
-                return new Token(TokenType.NIL, temp, temp, lineNum);
-            case "or":
-                return new Token(TokenType.OR, temp, temp, lineNum);
-            case "print":
-                return new Token(TokenType.PRINT, temp, temp, lineNum);
-            case "return":
-                return new Token(TokenType.RETURN, temp, temp, lineNum);
-            case "true":
-                return new Token(TokenType.TRUE, temp, temp, lineNum);
-            case "var":
-                return new Token(TokenType.VAR, temp, temp, lineNum);
-            case "while":
-                return new Token(TokenType.WHILE, temp, temp, lineNum);
-            default:
-                return null;
-        }
+    private static boolean next(String src, int i, int end, char expected) {
+        return i < end && src.charAt(i) == expected;
     }
 
+    /**
+     * Keywords are recognised by their first character and a region compare,
+     * so identifiers never need a substring just to be looked up.
+     */
+    private static TokenType keyword(String src, int start, int length) {
+        return switch (src.charAt(start)) {
+            case 'a' -> is(src, start, length, AND);
+            case 'e' -> is(src, start, length, ELSE);
+            case 'f' -> length == 3 && src.charAt(start + 1) == 'u' ? is(src, start, length, FUN)
+                    : length == 3 ? is(src, start, length, FOR) : is(src, start, length, FALSE);
+            case 'i' -> is(src, start, length, IF);
+            case 'n' -> is(src, start, length, NIL);
+            case 'o' -> is(src, start, length, OR);
+            case 'p' -> is(src, start, length, PRINT);
+            case 'r' -> is(src, start, length, RETURN);
+            case 't' -> is(src, start, length, TRUE);
+            case 'v' -> is(src, start, length, VAR);
+            case 'w' -> is(src, start, length, WHILE);
+            default -> IDENTIFIER;
+        };
+    }
 
-    public List<Token> scan() {
-        String[] lines = source.split("\n");
-        for (int i = 0; i < lines.length; i++) {
-            tokens.addAll(scanLine(removeWhitespace(lines[i]), i+1));
-        }
-        tokens.add(new Token(EOF, "", "", lines.length));
+    private static TokenType is(String src, int start, int length, TokenType keyword) {
+        String lexeme = FIXED_LEXEMES[keyword.ordinal()];
+        if (lexeme.length() == length && src.regionMatches(start, lexeme, 0, length))
+            return keyword;
+        return IDENTIFIER;
+    }
 
-        // TODO: How do you handle comments???
-        tokens.removeIf(t -> t.type == TokenType.COMMENT);
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
 
-        return tokens;
+    private static boolean isAlpha(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
     }
 
-    private String removeWhitespace(String line){
-        return line.trim().replaceAll("\\s+", " ");
+    private static boolean isAlphaNumeric(char c) {
+        return isAlpha(c) || isDigit(c);
     }
 
 }
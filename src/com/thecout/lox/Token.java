@@ -4,9 +4,10 @@ public class Token {
     public final TokenType type;
     public final String lexeme;
     public final Object literal;
+    // idx is the column after the token's last character, counted from the start of its line
     public int line, idx;
 
-    Token(TokenType type, String lexeme, Object literal, int line) {
+    public Token(TokenType type, String lexeme, Object literal, int line) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
@@ -0,0 +1,134 @@
+package com.thecout.lox;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Struct-of-arrays token list: one entry per token in a handful of primitive arrays
+ * instead of a Token object with its own lexeme and boxed literal.
+ * Number literals are parsed once into a side table that is only as long as the number of literals,
+ * string literals are sliced out of the source when they are asked for.
+ * Token objects are created on demand with {@link #token(int)}.
+ */
+public class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final String source;
+    // set when the buffer wraps tokens that were already scanned into objects
+    private final Token[] tokens;
+
+    private byte[] types = new byte[64];
+    private int[] starts = new int[64];
+    private int[] lengths = new int[64];
+    private int[] lines = new int[64];
+    private int[] idxs = new int[64];
+    private int size = 0;
+
+    // side table, sorted by token index
+    private int[] numberAt = new int[16];
+    private double[] numbers = new double[16];
+    private int numberCount = 0;
+
+    TokenBuffer(String source) {
+        this.source = source;
+        this.tokens = null;
+    }
+
+    private TokenBuffer(Token[] tokens) {
+        this.source = null;
+        this.tokens = tokens;
+        this.types = new byte[tokens.length];
+        this.lines = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            types[i] = (byte) tokens[i].type.ordinal();
+            lines[i] = tokens[i].line;
+        }
+        this.size = tokens.length;
+    }
+
+    public static TokenBuffer of(List<Token> tokens) {
+        return new TokenBuffer(tokens.toArray(new Token[0]));
+    }
+
+    void add(TokenType type, int start, int end, int line, int idx) {
+        if (size == types.length) {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            idxs = Arrays.copyOf(idxs, capacity);
+        }
+        types[size] = (byte) type.ordinal();
+        starts[size] = start;
+        lengths[size] = end - start;
+        lines[size] = line;
+        idxs[size] = idx;
+
+        if (type == TokenType.NUMBER) {
+            if (numberCount == numberAt.length) {
+                numberAt = Arrays.copyOf(numberAt, numberCount * 2);
+                numbers = Arrays.copyOf(numbers, numberCount * 2);
+            }
+            numberAt[numberCount] = size;
+            numbers[numberCount++] = Double.parseDouble(source.substring(start, end));
+        }
+        size++;
+    }
+
+    /**
+     * Drops the spare capacity once scanning is done.
+     */
+    void trim() {
+        types = Arrays.copyOf(types, size);
+        starts = Arrays.copyOf(starts, size);
+        lengths = Arrays.copyOf(lengths, size);
+        lines = Arrays.copyOf(lines, size);
+        idxs = Arrays.copyOf(idxs, size);
+        numberAt = Arrays.copyOf(numberAt, numberCount);
+        numbers = Arrays.copyOf(numbers, numberCount);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public TokenType type(int i) {
+        return TYPES[types[i]];
+    }
+
+    public int line(int i) {
+        return lines[i];
+    }
+
+    public String lexeme(int i) {
+        if (tokens != null)
+            return tokens[i].lexeme;
+        String lexeme = Scanner.fixedLexeme(type(i));
+        if (lexeme != null)
+            return lexeme;
+        return source.substring(starts[i], starts[i] + lengths[i]);
+    }
+
+    public Object literal(int i) {
+        if (tokens != null)
+            return tokens[i].literal;
+        return switch (type(i)) {
+            case NUMBER -> numbers[Arrays.binarySearch(numberAt, 0, numberCount, i)];
+            case STRING -> source.substring(starts[i] + 1, starts[i] + lengths[i] - 1);
+            case EOF -> "";
+            default -> lexeme(i);
+        };
+    }
+
+    /**
+     * Materializes the token at index i, e.g. for an AST node or an error message.
+     */
+    public Token token(int i) {
+        if (tokens != null)
+            return tokens[i];
+        Token token = new Token(type(i), lexeme(i), literal(i), lines[i]);
+        token.idx = idxs[i];
+        return token;
+    }
+}
@@ -0,0 +1,130 @@
+package com.thecout.lox;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static com.thecout.lox.TokenType.EOF;
+
+/**
+ * Lazy, pull based front end for sources that should not be held in memory as a whole.
+ * Tokens never span lines, so the stream reads one line at a time and only keeps the tokens
+ * of that line around. Like {@link Scanner#scan()} only '\n' ends a line, a '\r' is whitespace,
+ * so both give the same line numbers. The last token is EOF.
+ */
+public class TokenStream implements Iterator<Token>, Closeable {
+
+    private final Reader reader;
+    private final ArrayDeque<Token> window = new ArrayDeque<>();
+    private final char[] chunk = new char[8192];
+    private final StringBuilder text = new StringBuilder();
+    private int position = 0, limit = 0;
+    private int line = 0;
+    private boolean done = false;
+
+    public TokenStream(Reader reader) {
+        this.reader = reader;
+    }
+
+    public static TokenStream of(Path path) throws IOException {
+        return new TokenStream(Files.newBufferedReader(path, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Works on heap buffers as well as on a MappedByteBuffer of the source file,
+     * in that case the bytes are decoded straight from the mapping.
+     */
+    public static TokenStream of(ByteBuffer buffer) {
+        return new TokenStream(new InputStreamReader(new ByteBufferInputStream(buffer.duplicate()), StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public boolean hasNext() {
+        fill();
+        return !window.isEmpty();
+    }
+
+    @Override
+    public Token next() {
+        fill();
+        if (window.isEmpty())
+            throw new NoSuchElementException();
+        return window.poll();
+    }
+
+    private void fill() {
+        try {
+            while (window.isEmpty() && !done) {
+                String text = readLine();
+                if (text == null) {
+                    window.add(new Token(EOF, "", "", line));
+                    done = true;
+                    reader.close();
+                } else {
+                    Scanner.scanRange(text, 0, text.length(), ++line, window);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // unlike BufferedReader.readLine a lone '\r' does not end the line
+    private String readLine() throws IOException {
+        text.setLength(0);
+        boolean read = false;
+        while (true) {
+            if (position == limit) {
+                limit = reader.read(chunk, 0, chunk.length);
+                position = 0;
+                if (limit < 0) {
+                    limit = 0;
+                    return read ? text.toString() : null;
+                }
+            }
+            read = true;
+            int start = position;
+            while (position < limit && chunk[position] != '\n')
+                position++;
+            text.append(chunk, start, position - start);
+            if (position < limit) {
+                position++;
+                return text.toString();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        done = true;
+        window.clear();
+        reader.close();
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+            if (!buffer.hasRemaining())
+                return -1;
+            len = Math.min(len, buffer.remaining());
+            buffer.get(bytes, off, len);
+            return len;
+        }
+    }
+}
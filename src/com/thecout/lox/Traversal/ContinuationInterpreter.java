@@ -0,0 +1,497 @@
+package com.thecout.lox.Traversal;
+
+import com.thecout.lox.Parser.Expr.*;
+import com.thecout.lox.Parser.Stmts.*;
+import com.thecout.lox.TokenType;
+import com.thecout.lox.Traversal.InterpreterUtils.Environment;
+import com.thecout.lox.Traversal.InterpreterUtils.LoxCallable;
+import com.thecout.lox.Traversal.InterpreterUtils.LoxFunction;
+import com.thecout.lox.Traversal.InterpreterUtils.Operators;
+import com.thecout.lox.Traversal.InterpreterUtils.Thunk;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Heap allocated continuation mode of the {@link Interpreter}: runs a call with its own stack of continuations
+ * instead of nesting Java calls, so recursion that is not in tail position is only limited by the heap.
+ * The interpreter hands a call over to it once {@code lox.stackDepth} Lox calls are nested on the Java stack.
+ *
+ * <p>Only the expressions and statements that contain a call are taken apart here, everything else is run
+ * by the interpreter itself, which cannot nest further calls for them. A call in tail position replaces the
+ * frame of the function it returns from. Thunks of lazy mode are still forced on the Java stack.</p>
+ */
+final class ContinuationInterpreter {
+    private final Interpreter interpreter;
+    // whether a node is free of calls, shared by the runs of one Interpreter.interpret call
+    private final Map<Object, Boolean> callFree;
+    private final ArrayDeque<Continuation> stack = new ArrayDeque<>();
+
+    // result of the expression that was evaluated last, what the next continuation receives
+    private Object value;
+    // number of call frames on the stack, the run ends when the first one returns
+    private int frames = 0;
+
+    ContinuationInterpreter(Interpreter interpreter, Map<Object, Boolean> callFree) {
+        this.interpreter = interpreter;
+        this.callFree = callFree;
+    }
+
+    /**
+     * Runs the function in a frame from {@link LoxFunction#frame(int)} that already holds the arguments.
+     */
+    Object call(LoxFunction function, Environment frame) {
+        Environment previous = interpreter.environment;
+        try {
+            enter(function, frame);
+            while (frames > 0)
+                stack.pop().resume(value);
+            return value;
+        } finally {
+            interpreter.environment = previous;
+        }
+    }
+
+    private void enter(LoxFunction function, Environment frame) {
+        if (stack.peek() instanceof ReturnValue) {
+            // a call in tail position: the frame being left is not needed any more
+            while (!(stack.peek() instanceof CallFrame))
+                stack.pop();
+        } else {
+            stack.push(new CallFrame(interpreter.environment));
+            frames++;
+        }
+        interpreter.environment = frame;
+        stack.push(new Statements(function.body()));
+    }
+
+    // leaves the innermost function with value as its result
+    private void leave(Object value) {
+        while (!(stack.peek() instanceof CallFrame))
+            stack.pop();
+        stack.pop().resume(value);
+    }
+
+
+    private boolean isCallFree(Object node) {
+        Boolean free = callFree.get(node);
+        if (free == null) {
+            free = computeCallFree(node);
+            callFree.put(node, free);
+        }
+        return free;
+    }
+
+    private boolean computeCallFree(Object node) {
+        if (node == null || node instanceof Literal || node instanceof Variable || node instanceof Function)
+            return true;
+        // the interpreter does not evaluate the expression of a grouping
+        if (node instanceof Grouping)
+            return true;
+        if (node instanceof Call)
+            return false;
+        if (node instanceof Assign)
+            return isCallFree(((Assign) node).value);
+        if (node instanceof Binary)
+            return isCallFree(((Binary) node).left) && isCallFree(((Binary) node).right);
+        if (node instanceof Logical)
+            return isCallFree(((Logical) node).left) && isCallFree(((Logical) node).right);
+        if (node instanceof Unary)
+            return isCallFree(((Unary) node).right);
+        if (node instanceof Block)
+            return ((Block) node).statements.stream().allMatch(this::isCallFree);
+        if (node instanceof Expression)
+            return isCallFree(((Expression) node).expression);
+        if (node instanceof If)
+            return isCallFree(((If) node).condition) && isCallFree(((If) node).thenBranch)
+                    && isCallFree(((If) node).elseBranch);
+        if (node instanceof Print)
+            return isCallFree(((Print) node).expression);
+        if (node instanceof Return)
+            return isCallFree(((Return) node).value);
+        if (node instanceof Var)
+            return isCallFree(((Var) node).initializer);
+        if (node instanceof While)
+            return isCallFree(((While) node).condition) && isCallFree(((While) node).body);
+        return false;
+    }
+
+
+    // sets value to the value of expr, or pushes the continuations that will
+    private void evaluate(Expr expr) {
+        if (isCallFree(expr)) {
+            value = interpreter.evaluate(expr);
+        } else if (expr instanceof Assign) {
+            stack.push(new AssignValue((Assign) expr));
+            evaluate(((Assign) expr).value);
+        } else if (expr instanceof Binary) {
+            stack.push(new BinaryLeft((Binary) expr));
+            evaluate(((Binary) expr).left);
+        } else if (expr instanceof Logical) {
+            stack.push(new LogicalLeft((Logical) expr));
+            evaluate(((Logical) expr).left);
+        } else if (expr instanceof Unary) {
+            stack.push(new UnaryOperand((Unary) expr));
+            evaluate(((Unary) expr).right);
+        } else {
+            stack.push(new Callee((Call) expr));
+            evaluate(((Call) expr).callee);
+        }
+    }
+
+    private void execute(Stmt stmt) {
+        value = null;
+        if (isCallFree(stmt) || stmt instanceof Var && interpreter.isLazy()) {
+            if (interpreter.execute(stmt) == Interpreter.RETURN)
+                leave(interpreter.takeReturnValue());
+        } else if (stmt instanceof Block) {
+            Block block = (Block) stmt;
+            // the resolver put the block's variables into the enclosing environment
+            if (block.locals >= 0) {
+                stack.push(new Restore(interpreter.environment));
+                interpreter.environment = new Environment(interpreter.environment, block.locals);
+            }
+            stack.push(new Statements(block.statements));
+        } else if (stmt instanceof Expression) {
+            stack.push(new Discard());
+            evaluate(((Expression) stmt).expression);
+        } else if (stmt instanceof If) {
+            stack.push(new Condition((If) stmt));
+            evaluate(((If) stmt).condition);
+        } else if (stmt instanceof Print) {
+            stack.push(new PrintValue());
+            evaluate(((Print) stmt).expression);
+        } else if (stmt instanceof Return) {
+            stack.push(new ReturnValue());
+            evaluate(((Return) stmt).value);
+        } else if (stmt instanceof Var) {
+            stack.push(new Define((Var) stmt));
+            evaluate(((Var) stmt).initializer);
+        } else {
+            stack.push(new Loop((While) stmt));
+            evaluate(((While) stmt).condition);
+        }
+    }
+
+
+    /**
+     * What is left to do once the expression or statement on top of it is done, gets the expression's value.
+     */
+    private abstract static class Continuation {
+        abstract void resume(Object value);
+    }
+
+    private final class CallFrame extends Continuation {
+        final Environment caller;
+
+        CallFrame(Environment caller) {
+            this.caller = caller;
+        }
+
+        // the body ran to its end or a return left it
+        @Override
+        void resume(Object result) {
+            interpreter.environment = caller;
+            frames--;
+            value = result;
+        }
+    }
+
+    private final class Statements extends Continuation {
+        final List<Stmt> statements;
+        int next = 0;
+
+        Statements(List<Stmt> statements) {
+            this.statements = statements;
+        }
+
+        @Override
+        void resume(Object ignored) {
+            if (next == statements.size()) {
+                // the end of a function body returns nil
+                if (stack.peek() instanceof CallFrame)
+                    leave(null);
+                return;
+            }
+            Stmt stmt = statements.get(next++);
+            stack.push(this);
+            execute(stmt);
+        }
+    }
+
+    private final class Restore extends Continuation {
+        final Environment environment;
+
+        Restore(Environment environment) {
+            this.environment = environment;
+        }
+
+        @Override
+        void resume(Object ignored) {
+            interpreter.environment = environment;
+        }
+    }
+
+    private final class ReturnValue extends Continuation {
+        @Override
+        void resume(Object result) {
+            leave(result);
+        }
+    }
+
+    private final class Discard extends Continuation {
+        @Override
+        void resume(Object ignored) {
+            value = null;
+        }
+    }
+
+    private final class PrintValue extends Continuation {
+        @Override
+        void resume(Object printed) {
+            System.out.println(Interpreter.stringify(printed));
+            value = null;
+        }
+    }
+
+    private final class Define extends Continuation {
+        final Var stmt;
+
+        Define(Var stmt) {
+            this.stmt = stmt;
+        }
+
+        @Override
+        void resume(Object initializer) {
+            interpreter.define(stmt.slot, stmt.name, initializer);
+            value = null;
+        }
+    }
+
+    private final class Condition extends Continuation {
+        final If stmt;
+
+        Condition(If stmt) {
+            this.stmt = stmt;
+        }
+
+        @Override
+        void resume(Object condition) {
+            if ((boolean) condition)
+                execute(stmt.thenBranch);
+            else if (stmt.elseBranch != null)
+                execute(stmt.elseBranch);
+            else
+                value = null;
+        }
+    }
+
+    private final class Loop extends Continuation {
+        final While stmt;
+        boolean ranBody = false;
+
+        Loop(While stmt) {
+            this.stmt = stmt;
+        }
+
+        // gets the condition, or nothing once the body ran
+        @Override
+        void resume(Object condition) {
+            stack.push(this);
+            if (ranBody) {
+                ranBody = false;
+                evaluate(stmt.condition);
+            } else if ((boolean) condition) {
+                ranBody = true;
+                execute(stmt.body);
+            } else {
+                stack.pop();
+                value = null;
+            }
+        }
+    }
+
+    private final class AssignValue extends Continuation {
+        final Assign expr;
+
+        AssignValue(Assign expr) {
+            this.expr = expr;
+        }
+
+        @Override
+        void resume(Object assigned) {
+            if (expr.depth < 0)
+                interpreter.globals.assign(expr.name, assigned);
+            else
+                interpreter.environment.assignAt(expr.depth, expr.slot, assigned);
+            value = assigned;
+        }
+    }
+
+    private final class BinaryLeft extends Continuation {
+        final Binary expr;
+
+        BinaryLeft(Binary expr) {
+            this.expr = expr;
+        }
+
+        @Override
+        void resume(Object left) {
+            // the interpreter fails on a left operand that is not a number before it evaluates the right one
+            switch (expr.operator.type) {
+                case BANG_EQUAL, EQUAL_EQUAL -> {
+                }
+                case PLUS -> {
+                    if (!(left instanceof String))
+                        left = (double) left;
+                }
+                default -> left = (double) left;
+            }
+            stack.push(new BinaryRight(expr, left));
+            evaluate(expr.right);
+        }
+    }
+
+    private final class BinaryRight extends Continuation {
+        final Binary expr;
+        final Object left;
+
+        BinaryRight(Binary expr, Object left) {
+            this.expr = expr;
+            this.left = left;
+        }
+
+        @Override
+        void resume(Object right) {
+            value = Operators.apply(expr.operator.type, left, right);
+        }
+    }
+
+    private final class LogicalLeft extends Continuation {
+        final Logical expr;
+
+        LogicalLeft(Logical expr) {
+            this.expr = expr;
+        }
+
+        @Override
+        void resume(Object left) {
+            boolean decided = (boolean) left;
+            if (expr.operator.type == TokenType.AND)
+                decided = !decided;
+            if (decided) {
+                value = left;
+                return;
+            }
+            stack.push(new LogicalRight());
+            evaluate(expr.right);
+        }
+    }
+
+    private final class LogicalRight extends Continuation {
+        @Override
+        void resume(Object right) {
+            value = (boolean) right;
+        }
+    }
+
+    private final class UnaryOperand extends Continuation {
+        final Unary expr;
+
+        UnaryOperand(Unary expr) {
+            this.expr = expr;
+        }
+
+        @Override
+        void resume(Object operand) {
+            value = switch (expr.operator.type) {
+                case MINUS -> -(double) operand;
+                case BANG -> !(boolean) operand;
+                default -> null;
+            };
+        }
+    }
+
+    private final class Callee extends Continuation {
+        final Call expr;
+
+        Callee(Call expr) {
+            this.expr = expr;
+        }
+
+        // a callee that is not callable is the value of the call, its arguments are not evaluated
+        @Override
+        void resume(Object callee) {
+            value = callee;
+            if (callee instanceof LoxFunction) {
+                LoxFunction function = (LoxFunction) callee;
+                new Arguments(expr.arguments, function, function.frame(expr.arguments.size())).resume(null);
+            } else if (callee instanceof LoxCallable) {
+                new Arguments(expr.arguments, (LoxCallable) callee, null).resume(null);
+            }
+        }
+    }
+
+    /**
+     * Evaluates the arguments one after the other, into the frame of a Lox function or an array for a native.
+     */
+    private final class Arguments extends Continuation {
+        final List<Expr> arguments;
+        final LoxCallable callee;
+        final Environment frame;
+        final Object[] values;
+        int next = -1;
+
+        Arguments(List<Expr> arguments, LoxCallable callee, Environment frame) {
+            this.arguments = arguments;
+            this.callee = callee;
+            this.frame = frame;
+            this.values = frame == null ? new Object[arguments.size()] : null;
+        }
+
+        // gets the value of the previous argument
+        @Override
+        void resume(Object argument) {
+            while (true) {
+                if (next >= 0)
+                    store(next, argument);
+                if (++next == arguments.size())
+                    break;
+                Expr expr = arguments.get(next);
+                if (interpreter.isLazy()) {
+                    argument = new Thunk(expr, interpreter.environment);
+                    continue;
+                }
+                stack.push(this);
+                evaluate(expr);
+                if (stack.peek() == this) {
+                    // evaluated right away
+                    stack.pop();
+                    argument = value;
+                    continue;
+                }
+                return;
+            }
+
+            if (frame != null) {
+                enter((LoxFunction) callee, frame);
+                return;
+            }
+            value = switch (values.length) {
+                case 0 -> callee.call0(interpreter);
+                case 1 -> callee.call1(interpreter, values[0]);
+                case 2 -> callee.call2(interpreter, values[0], values[1]);
+                default -> callee.callN(interpreter, values);
+            };
+        }
+
+        // surplus arguments of a Lox function are evaluated and dropped
+        private void store(int i, Object argument) {
+            if (frame == null)
+                values[i] = argument;
+            else if (i < callee.arity())
+                frame.define(i, argument);
+        }
+    }
+}
@@ -1,114 +1,288 @@
 package com.thecout.lox.Traversal;
 
 
+import com.thecout.lox.Optimizer.Optimizer;
 import com.thecout.lox.Parser.Expr.*;
 import com.thecout.lox.Parser.Stmts.*;
 import com.thecout.lox.Token;
+import com.thecout.lox.TokenType;
 import com.thecout.lox.Traversal.InterpreterUtils.*;
 
-import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
-public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Void> {
+public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Object> {
 
     public final Environment globals = new Environment();
-    private Environment environment = globals;
+    protected Environment environment = globals;
+    // variable initializers and arguments become memoized thunks instead of being evaluated right away
+    private boolean lazy = Boolean.getBoolean("lox.lazy");
+    // run the optimizer passes before resolving, off unless -Dlox.optimize=true: they assume the statements
+    // of one interpret() call are the whole program
+    private boolean optimize = Boolean.getBoolean("lox.optimize");
+
+    // Lox calls nested on the Java stack, deeper calls continue in the heap allocated continuation mode
+    private int stackDepth = Integer.getInteger("lox.stackDepth", 100);
+    private int callDepth = 0;
+    // which nodes the continuation mode found free of calls, for one interpret() call so it keeps no old trees alive
+    private final Map<Object, Boolean> callFree = new IdentityHashMap<>();
+
+    // what a statement returns if a return statement ran in it, the value is in returnValue until the call takes it
+    static final Object RETURN = new Object();
+    private Object returnValue;
 
 
     public Interpreter() {
-        globals.define("clock", new LoxCallable() {
-            @Override
-            public int arity() {
-                return 0;
-            }
+        globals.define("clock", new Clock());
+    }
 
-            @Override
-            public Object call(Interpreter interpreter,
-                               List<Object> arguments) {
-                return (double) System.currentTimeMillis() / 1000.0;
-            }
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
 
-            @Override
-            public String toString() {
-                return "<native fn>";
-            }
-        });
+    public void setOptimize(boolean optimize) {
+        this.optimize = optimize;
+    }
+
+    /**
+     * How many Lox calls nest on the Java stack before calls run in the {@link ContinuationInterpreter},
+     * 0 runs every call there.
+     */
+    public void setStackDepth(int stackDepth) {
+        this.stackDepth = stackDepth;
+    }
+
+    boolean isLazy() {
+        return lazy;
     }
 
     public void interpret(List<Stmt> statements) {
+        if(optimize)
+            statements = Optimizer.optimize(statements);
+        // thunks hold on to their environment, so lazy mode cannot share one between blocks
+        Resolver resolver = new Resolver(!lazy);
+        resolver.resolve(statements);
+
+        Environment previous = this.environment;
+        if(resolver.scriptLocals() > 0)
+            this.environment = new Environment(globals, resolver.scriptLocals());
         try {
-            for (Stmt statement : statements) {
-                execute(statement);
-            }
+            // a return outside of a function ends the script
+            execute(statements);
         } catch (RuntimeError error) {
             error.printStackTrace();
+        } catch (StackOverflowError error) {
+            // calls move to the heap once they nest too deep, but thunks and deeply nested expressions still recurse
+            new RuntimeError(null, "Stack overflow.").printStackTrace();
+        } finally {
+            this.environment = previous;
+            callFree.clear();
         }
     }
 
-    public void executeBlock(List<Stmt> statements, Environment environment) {
+    public Object executeBlock(List<Stmt> statements, Environment environment) {
         Environment previous = this.environment;
         try {
             this.environment = environment;
-
-            for (Stmt statement : statements) {
-                execute(statement);
-            }
+            return execute(statements);
         } finally {
             this.environment = previous;
         }
     }
 
-    private Object evaluate(Expr expr) {
+    private Object execute(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if(execute(statement) == RETURN)
+                return RETURN;
+        }
+        return null;
+    }
+
+    /**
+     * Runs a function body, the result is the value of the return statement that ended it or nil.
+     */
+    public Object executeBody(List<Stmt> statements, Environment environment) {
+        if(executeBlock(statements, environment) != RETURN)
+            return null;
+        return takeReturnValue();
+    }
+
+    Object takeReturnValue() {
+        Object value = returnValue;
+        returnValue = null;
+        return value;
+    }
+
+    /**
+     * How print shows a value, integral numbers without a fraction.
+     */
+    public static String stringify(Object obj) {
+        if(obj instanceof Double && (double)obj - ((Double) obj).intValue() == 0)
+            obj = ((Double) obj).intValue();
+
+        return String.valueOf(obj);
+    }
+
+    public Object evaluate(Expr expr) {
         return expr.accept(this);
     }
 
-    public void execute(Stmt stmt) {
-        stmt.accept(this);
+    public Object evaluate(Expr expr, Environment environment) {
+        Environment previous = this.environment;
+        try {
+            this.environment = environment;
+            return evaluate(expr);
+        } finally {
+            this.environment = previous;
+        }
+    }
+
+    // the value a variable is bound to: evaluated now or, in lazy mode, on first read
+    private Object bind(Expr expr) {
+        if(expr == null)
+            return null;
+        if(lazy)
+            return new Thunk(expr, this.environment);
+        return evaluate(expr);
+    }
+
+    public Object execute(Stmt stmt) {
+        return stmt.accept(this);
     }
 
 
     @Override
     public Object visitAssignExpr(Assign expr) {
-        if(expr.name != null)
-            this.environment.assign(expr.name, evaluate(expr.value));
+        Object value = evaluate(expr.value);
+
+        if(expr.depth < 0)
+            globals.assign(expr.name, value);
         else
-            evaluate(expr.value);
+            this.environment.assignAt(expr.depth, expr.slot, value);
 
-        return evaluate(expr.value);
+        return value;
     }
 
     @Override
     public Object visitBinaryExpr(Binary expr) {
 
-        return switch (expr.operator.type) {
-            case BANG_EQUAL -> evaluate(expr.left) != evaluate(expr.right);
-            case EQUAL_EQUAL -> evaluate(expr.left) == evaluate(expr.right);
-            case GREATER -> (double) evaluate(expr.left) > (double) evaluate(expr.right);
-            case GREATER_EQUAL -> (double) evaluate(expr.left) >= (double) evaluate(expr.right);
-            case LESS -> (double) evaluate(expr.left) < (double) evaluate(expr.right);
-            case LESS_EQUAL -> (double) evaluate(expr.left) <= (double) evaluate(expr.right);
-            case PLUS -> (double) evaluate(expr.left) + (double) evaluate(expr.right);
-            case MINUS -> (double) evaluate(expr.left) - (double) evaluate(expr.right);
-            case STAR -> (double) evaluate(expr.left) * (double) evaluate(expr.right);
-            case SLASH -> (double) evaluate(expr.left) / (double) evaluate(expr.right);
-            default -> null;
-        };
+        TokenType operator = expr.operator.type;
+        // arithmetic that can only be on numbers stays unboxed, everything else goes through Operators
+        if(operator == TokenType.MINUS || operator == TokenType.STAR || operator == TokenType.SLASH
+                || operator == TokenType.PLUS && isArithmetic(expr.left))
+            return evaluateDouble(expr);
+        Object left = evaluate(expr.left);
+        return Operators.apply(operator, left, evaluate(expr.right));
+    }
+
+    // true if expr can only be a number, so a + on it is an addition and not a concatenation
+    private static boolean isArithmetic(Expr expr) {
+        if(expr instanceof Binary) {
+            TokenType operator = ((Binary) expr).operator.type;
+            return operator == TokenType.MINUS || operator == TokenType.STAR || operator == TokenType.SLASH;
+        }
+        if(expr instanceof Unary)
+            return ((Unary) expr).operator.type == TokenType.MINUS;
+        return expr instanceof Literal && ((Literal) expr).value instanceof Double;
+    }
+
+    /**
+     * Evaluates an expression that has to be a number. Arithmetic subtrees are computed on unboxed doubles,
+     * only the value of the whole subtree is boxed by the caller.
+     */
+    private double evaluateDouble(Expr expr) {
+        if(expr instanceof Binary) {
+            Binary binary = (Binary) expr;
+            switch (binary.operator.type) {
+                case PLUS: return evaluateDouble(binary.left) + evaluateDouble(binary.right);
+                case MINUS: return evaluateDouble(binary.left) - evaluateDouble(binary.right);
+                case STAR: return evaluateDouble(binary.left) * evaluateDouble(binary.right);
+                case SLASH: return evaluateDouble(binary.left) / evaluateDouble(binary.right);
+                default: break;
+            }
+        } else if(expr instanceof Unary && ((Unary) expr).operator.type == TokenType.MINUS) {
+            return -evaluateDouble(((Unary) expr).right);
+        }
+
+        return (double) evaluate(expr);
     }
 
     @Override
     public Object visitCallExpr(Call expr) {
+        Object site = expr.specialization;
+        if(site instanceof CallSite && ((CallSite) site).isValid(globals)) {
+            LoxFunction function = ((CallSite) site).function;
+            return call(function, frame(function, expr.arguments));
+        }
+
+        Object callee = evaluate(expr.callee);
+        if(site == null)
+            cache(expr, callee);
+        else if(site != CallSite.GENERIC)
+            expr.specialization = CallSite.GENERIC;
+
+        if(callee instanceof LoxFunction)
+            return call((LoxFunction) callee, frame((LoxFunction) callee, expr.arguments));
+        return call(callee, expr.arguments);
+    }
 
-        Object obj = evaluate(expr.callee);
+    private Object call(LoxFunction function, Environment frame) {
+        if(callDepth >= stackDepth)
+            return new ContinuationInterpreter(this, callFree).call(function, frame);
 
-        if(obj instanceof LoxCallable)
-            return ((LoxCallable)obj).call(this, new ArrayList<Object>(expr.arguments));
+        callDepth++;
+        try {
+            return function.call(this, frame);
+        } finally {
+            callDepth--;
+        }
+    }
 
-        if(obj instanceof Expr)
-            return evaluate((Expr) obj);
+    // a call site is cached on its first call, if that calls a global function
+    private void cache(Call expr, Object callee) {
+        Environment.Binding binding = null;
+        if(callee instanceof LoxFunction && expr.callee instanceof Variable && ((Variable) expr.callee).depth < 0)
+            binding = globals.binding(((Variable) expr.callee).name.lexeme);
 
-        return obj;
+        expr.specialization = binding != null ? new CallSite(globals, binding, (LoxFunction) callee) : CallSite.GENERIC;
+    }
+
+    // a frame of function with the arguments bound to the parameter slots, surplus arguments are evaluated and dropped
+    private Environment frame(LoxFunction function, List<Expr> arguments) {
+        Environment frame = function.frame(arguments.size());
+        int arity = function.arity();
+        for (int i = 0; i < arguments.size(); i++) {
+            Object value = bind(arguments.get(i));
+            if(i < arity)
+                frame.define(i, value);
+        }
+        return frame;
+    }
+
+    /**
+     * Calls callee with the given arguments, a callee that is not callable is the value of the call.
+     */
+    public Object call(Object callee, List<Expr> arguments) {
+        if(!(callee instanceof LoxCallable))
+            return callee;
+
+        LoxCallable callable = (LoxCallable) callee;
+        return switch (arguments.size()) {
+            case 0 -> callable.call0(this);
+            case 1 -> callable.call1(this, bind(arguments.get(0)));
+            case 2 -> callable.call2(this, bind(arguments.get(0)), bind(arguments.get(1)));
+            default -> callable.callN(this, bind(arguments));
+        };
+    }
+
+    private Object[] bind(List<Expr> arguments) {
+        Object[] values = new Object[arguments.size()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = bind(arguments.get(i));
+        return values;
     }
 
     @Override
@@ -133,21 +307,21 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Void> {
 
     @Override
     public Object visitUnaryExpr(Unary expr) {
-        Object right = evaluate(expr.right);
-
-        if(expr.operator == null)
-            return evaluate(expr.right);
-
         return switch (expr.operator.type) {
-            case BANG -> !(boolean) right;
-            case MINUS -> -(double) right;
+            case MINUS -> -evaluateDouble(expr.right);
+            case BANG -> !(boolean) evaluate(expr.right);
             default -> null;
         };
     }
 
     @Override
     public Object visitVariableExpr(Variable expr) {
-        return environment.get(expr.name);
+        Object value = expr.depth < 0 ? globals.get(expr.name) : environment.getAt(expr.depth, expr.slot);
+
+        if(value instanceof Thunk)
+            return ((Thunk) value).force(this);
+
+        return value;
     }
 
 
@@ -158,72 +332,84 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Void> {
 
 
     @Override
-    public Void visitBlockStmt(Block stmt) {
-        executeBlock(stmt.statements, new Environment(this.environment));
+    public Object visitBlockStmt(Block stmt) {
+        // the resolver put the block's variables into the enclosing environment
+        if(stmt.locals < 0)
+            return execute(stmt.statements);
 
-        return null;
+        return executeBlock(stmt.statements, new Environment(this.environment, stmt.locals));
     }
 
     @Override
-    public Void visitExpressionStmt(Expression stmt) {
+    public Object visitExpressionStmt(Expression stmt) {
         evaluate(stmt.expression);
         return null;
     }
 
     @Override
-    public Void visitFunctionStmt(Function stmt) {
-        this.environment.define(
-                stmt.name.lexeme,
-                new LoxFunction(stmt, this.environment)
-        );
+    public Object visitFunctionStmt(Function stmt) {
+        define(stmt.slot, stmt.name, new LoxFunction(stmt, this.environment));
 
         return null;
     }
 
     @Override
-    public Void visitIfStmt(If stmt) {
+    public Object visitIfStmt(If stmt) {
 
         if((boolean) evaluate(stmt.condition))
-            execute(stmt.thenBranch);
+            return execute(stmt.thenBranch);
         else if(stmt.elseBranch != null)
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
 
         return null;
     }
 
     @Override
-    public Void visitPrintStmt(Print stmt) {
-
-        Object obj = evaluate(stmt.expression);
-
-        if(obj instanceof Double && (double)obj - ((Double) obj).intValue() == 0)
-            obj = ((Double) obj).intValue();
+    public Object visitPrintStmt(Print stmt) {
 
-        System.out.println(obj);
+        System.out.println(stringify(evaluate(stmt.expression)));
 
         return null;
     }
 
     @Override
-    public Void visitReturnStmt(Return stmt) {
+    public Object visitReturnStmt(Return stmt) {
         Object value = null;
 
-        if(stmt.value != null)
+        if(stmt.tailCall) {
+            Call call = (Call) stmt.value;
+            Object callee = evaluate(call.callee);
+            // a Lox function is called by the LoxFunction.call that is being left, so the Java stack does not grow
+            if(callee instanceof LoxFunction)
+                value = new TailCall((LoxFunction) callee, frame((LoxFunction) callee, call.arguments));
+            else
+                value = call(callee, call.arguments);
+        } else if(stmt.value != null) {
             value = evaluate(stmt.value);
+        }
 
-        throw new LoxReturn(value);
+        returnValue = value;
+        return RETURN;
     }
 
     @Override
-    public Void visitVarStmt(Var stmt) {
-        this.environment.define(stmt.name.lexeme, stmt.initializer);
+    public Object visitVarStmt(Var stmt) {
+        define(stmt.slot, stmt.name, bind(stmt.initializer));
         return null;
     }
 
+    void define(int slot, Token name, Object value) {
+        if(slot < 0)
+            globals.define(name.lexeme, value);
+        else
+            this.environment.define(slot, value);
+    }
+
     @Override
-    public Void visitWhileStmt(While stmt) {
+    public Object visitWhileStmt(While stmt) {
         while ((boolean) evaluate(stmt.condition)) {
-            execute(stmt.body);
+            if(execute(stmt.body) == RETURN)
+                return RETURN;
         }
         return null;
     }
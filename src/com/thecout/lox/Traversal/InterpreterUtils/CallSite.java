@@ -0,0 +1,26 @@
+package com.thecout.lox.Traversal.InterpreterUtils;
+
+/**
+ * Monomorphic inline cache of a call of a global function, stored in the {@link com.thecout.lox.Parser.Expr.Call}
+ * node. As long as the global still holds the function, the call skips the name lookup and the
+ * callable check and binds the arguments straight into the new frame.
+ */
+public final class CallSite {
+    // marks a call site that is not cached, because the callee is not a global function or changed
+    public static final Object GENERIC = new Object();
+
+    private final Environment globals;
+    private final Environment.Binding binding;
+    public final LoxFunction function;
+
+    public CallSite(Environment globals, Environment.Binding binding, LoxFunction function) {
+        this.globals = globals;
+        this.binding = binding;
+        this.function = function;
+    }
+
+    // the tree may be shared by several interpreters, each with its own globals
+    public boolean isValid(Environment globals) {
+        return this.globals == globals && binding.value == function;
+    }
+}
@@ -2,32 +2,64 @@ package com.thecout.lox.Traversal.InterpreterUtils;
 
 import com.thecout.lox.Token;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Either the global environment, which looks variables up by name, or a local frame whose variables
+ * live in an array at the slots the {@link com.thecout.lox.Traversal.Resolver} assigned.
+ */
 public class Environment {
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    private final Map<String, Binding> values;
+    private final Object[] slots;
+
+    /**
+     * Storage of one global. A name keeps its binding for good, so a call site can hold on to it
+     * instead of looking the name up again.
+     */
+    public static final class Binding {
+        public Object value;
+
+        Binding(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(value);
+        }
+    }
 
     public Environment() {
         enclosing = null;
+        values = new HashMap<>();
+        slots = null;
     }
 
-    public Environment(Environment enclosing) {
+    public Environment(Environment enclosing, int size) {
         this.enclosing = enclosing;
+        this.values = null;
+        this.slots = new Object[size];
     }
 
     public void define(String name, Object value) {
-        values.put(name, value);
+        Binding binding = values.get(name);
+        if (binding != null)
+            binding.value = value;
+        else
+            values.put(name, new Binding(value));
+    }
+
+    public void define(int slot, Object value) {
+        slots[slot] = value;
     }
 
     public void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
-        }
-        if (enclosing != null) {
-            enclosing.assign(name, value);
+        Binding binding = globals().values.get(name.lexeme);
+        if (binding != null) {
+            binding.value = value;
             return;
         }
         throw new RuntimeError(name,
@@ -35,18 +67,46 @@ public class Environment {
     }
 
     public Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
-        }
-        if (enclosing != null) return enclosing.get(name);
+        Binding binding = globals().values.get(name.lexeme);
+        if (binding != null)
+            return binding.value;
 
         throw new RuntimeError(name,
                 "Undefined variable '" + name.lexeme + "'.");
     }
 
+    /**
+     * The binding of a global, null if it is not defined (yet).
+     */
+    public Binding binding(String name) {
+        return globals().values.get(name);
+    }
+
+    public Object getAt(int depth, int slot) {
+        return ancestor(depth).slots[slot];
+    }
+
+    public void assignAt(int depth, int slot, Object value) {
+        ancestor(depth).slots[slot] = value;
+    }
+
+    private Environment ancestor(int depth) {
+        Environment environment = this;
+        for (int i = 0; i < depth; i++)
+            environment = environment.enclosing;
+        return environment;
+    }
+
+    private Environment globals() {
+        Environment environment = this;
+        while (environment.enclosing != null)
+            environment = environment.enclosing;
+        return environment;
+    }
+
     @Override
     public String toString() {
-        String result = values.toString();
+        String result = values != null ? values.toString() : Arrays.toString(slots);
         if (enclosing != null) {
             result += " -> " + enclosing;
         }
@@ -3,10 +3,32 @@ package com.thecout.lox.Traversal.InterpreterUtils;
 
 import com.thecout.lox.Traversal.Interpreter;
 
+import java.util.Arrays;
 import java.util.List;
 
 public interface LoxCallable {
     int arity();
 
     Object call(Interpreter interpreter, List<Object> arguments);
-}
\ No newline at end of file
+
+    /*
+     * Entry points by number of arguments, which the interpreter and the VM use instead of building a list.
+     * The defaults fall back to call(Interpreter, List), implementations override the ones they can do without it.
+     */
+
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, Arrays.asList());
+    }
+
+    default Object call1(Interpreter interpreter, Object argument) {
+        return call(interpreter, Arrays.asList(argument));
+    }
+
+    default Object call2(Interpreter interpreter, Object first, Object second) {
+        return call(interpreter, Arrays.asList(first, second));
+    }
+
+    default Object callN(Interpreter interpreter, Object[] arguments) {
+        return call(interpreter, Arrays.asList(arguments));
+    }
+}
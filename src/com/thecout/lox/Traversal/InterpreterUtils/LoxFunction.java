@@ -2,6 +2,7 @@ package com.thecout.lox.Traversal.InterpreterUtils;
 
 
 import com.thecout.lox.Parser.Stmts.Function;
+import com.thecout.lox.Parser.Stmts.Stmt;
 import com.thecout.lox.Traversal.Interpreter;
 
 import java.util.List;
@@ -20,6 +21,10 @@ public class LoxFunction implements LoxCallable {
         return declaration.parameters.size();
     }
 
+    public List<Stmt> body() {
+        return declaration.body;
+    }
+
     @Override
     public String toString() {
         return "<fn " + declaration.name.lexeme + ">";
@@ -27,19 +32,72 @@ public class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        Environment environment = frame(arguments.size());
+        for (int i = 0; i < declaration.parameters.size(); i++) {
+            environment.define(i, arguments.get(i));
+        }
+
+        return call(interpreter, environment);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return call(interpreter, frame(0));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object argument) {
+        Environment environment = frame(1);
+        if (arity() > 0)
+            environment.define(0, argument);
+        return call(interpreter, environment);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object first, Object second) {
+        Environment environment = frame(2);
+        int arity = arity();
+        if (arity > 0)
+            environment.define(0, first);
+        if (arity > 1)
+            environment.define(1, second);
+        return call(interpreter, environment);
+    }
 
-        Environment environment = new Environment(closure);
+    @Override
+    public Object callN(Interpreter interpreter, Object[] arguments) {
+        Environment environment = frame(arguments.length);
         for (int i = 0; i < declaration.parameters.size(); i++) {
-            environment.define(declaration.parameters.get(i).lexeme, arguments.get(i));
+            environment.define(i, arguments[i]);
         }
+        return call(interpreter, environment);
+    }
+
+    /**
+     * Runs the function in a frame from {@link #frame(int)} that already holds the arguments.
+     */
+    public Object call(Interpreter interpreter, Environment environment) {
+        LoxFunction function = this;
 
-        try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (LoxReturn returnValue) {
-            return returnValue.value;
+        // tail calls of the body come back here instead of nesting
+        while (true) {
+            Object result = interpreter.executeBody(function.declaration.body, environment);
+            if (!(result instanceof TailCall))
+                return result;
+
+            function = ((TailCall) result).function;
+            environment = ((TailCall) result).environment;
         }
+    }
 
-        return null;
+    /**
+     * A new environment for a call with argc arguments, the resolver puts the parameters into the first slots.
+     */
+    public Environment frame(int argc) {
+        if (argc < declaration.parameters.size())
+            throw new RuntimeError(declaration.name,
+                    "Expected " + declaration.parameters.size() + " arguments but got " + argc + ".");
+        return new Environment(closure, declaration.locals);
     }
 
 
@@ -0,0 +1,28 @@
+package com.thecout.lox.Traversal.InterpreterUtils;
+
+import com.thecout.lox.TokenType;
+
+import java.util.Objects;
+
+/**
+ * Semantics of the binary operators on evaluated operands, shared by the interpreters, the specialized
+ * nodes and the constant folder. Operands of the wrong type fail with a ClassCastException
+ * or NullPointerException.
+ */
+public class Operators {
+    public static Object apply(TokenType operator, Object left, Object right) {
+        return switch (operator) {
+            case BANG_EQUAL -> !Objects.equals(left, right);
+            case EQUAL_EQUAL -> Objects.equals(left, right);
+            case GREATER -> (double) left > (double) right;
+            case GREATER_EQUAL -> (double) left >= (double) right;
+            case LESS -> (double) left < (double) right;
+            case LESS_EQUAL -> (double) left <= (double) right;
+            case PLUS -> left instanceof String ? (String) left + (String) right : (double) left + (double) right;
+            case MINUS -> (double) left - (double) right;
+            case STAR -> (double) left * (double) right;
+            case SLASH -> (double) left / (double) right;
+            default -> null;
+        };
+    }
+}
@@ -0,0 +1,16 @@
+package com.thecout.lox.Traversal.InterpreterUtils;
+
+/**
+ * Result of a function body that ended in a call in tail position: the call is made by the caller's
+ * {@link LoxFunction#call} loop, after the body's Java frames are gone.
+ */
+public class TailCall {
+    final LoxFunction function;
+    final Environment environment;
+
+    // environment is a frame of function with the arguments bound, see LoxFunction#frame
+    public TailCall(LoxFunction function, Environment environment) {
+        this.function = function;
+        this.environment = environment;
+    }
+}
@@ -0,0 +1,29 @@
+package com.thecout.lox.Traversal.InterpreterUtils;
+
+import com.thecout.lox.Parser.Expr.Expr;
+import com.thecout.lox.Traversal.Interpreter;
+
+/**
+ * A variable initializer or argument in lazy mode: evaluated in the environment it was bound in
+ * on the first read, every later read returns the same value.
+ */
+public class Thunk {
+    private Expr expr;
+    private Environment environment;
+    private Object value;
+
+    public Thunk(Expr expr, Environment environment) {
+        this.expr = expr;
+        this.environment = environment;
+    }
+
+    public Object force(Interpreter interpreter) {
+        if (expr != null) {
+            value = interpreter.evaluate(expr, environment);
+            // drop the references so the environment can be collected
+            expr = null;
+            environment = null;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,255 @@
+package com.thecout.lox.Traversal;
+
+import com.thecout.lox.Parser.Expr.*;
+import com.thecout.lox.Parser.Stmts.*;
+import com.thecout.lox.Token;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Static pass that runs before the interpreter and binds every local variable to a (depth, slot) pair:
+ * depth is the number of environments between the use and the declaration, slot the index in that
+ * environment's array. Each block and each function call gets one environment, parameters take the
+ * first slots of a function. Everything declared outside of any block or function is global
+ * and stays a name lookup (depth -1).
+ *
+ * <p>With flattening on, only blocks whose variables a nested function captures get an environment.
+ * The variables of the other blocks take further slots of the enclosing environment, top level
+ * blocks share one script environment of {@link #scriptLocals()} slots. A first pass finds the
+ * captured blocks. Flattening reuses slots across loop iterations, which a lazy interpreter cannot
+ * allow: its thunks keep reading the environment they were created in.</p>
+ */
+public class Resolver implements ExprVisitor<Void>, StmtVisitor<Void> {
+    // innermost scope last
+    private final List<Scope> scopes = new ArrayList<>();
+    private int functionDepth = 0;
+
+    private final boolean flatten;
+    private boolean analyzing = false;
+    private final Set<Block> captured = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Frame script = new Frame();
+
+    // the environment a scope's variables live in, shared by a block with the scope it is flattened into
+    private static class Frame {
+        int size = 0;
+    }
+
+    private static class Scope {
+        final Map<String, Integer> names = new HashMap<>();
+        final Frame frame;
+        final Block block;
+        final boolean function;
+
+        Scope(Frame frame, Block block, boolean function) {
+            this.frame = frame;
+            this.block = block;
+            this.function = function;
+        }
+    }
+
+    public Resolver() {
+        this(false);
+    }
+
+    public Resolver(boolean flatten) {
+        this.flatten = flatten;
+    }
+
+    public void resolve(List<Stmt> statements) {
+        if (flatten) {
+            analyzing = true;
+            resolveAll(statements);
+            analyzing = false;
+        }
+        resolveAll(statements);
+    }
+
+    /**
+     * Slots of the environment the interpreter has to run the top level statements in, 0 if they need none.
+     */
+    public int scriptLocals() {
+        return script.size;
+    }
+
+    private void resolveAll(List<Stmt> statements) {
+        // local functions are declared before any body is resolved, so they can call functions declared after them
+        for (Stmt statement : statements)
+            if (statement instanceof Function)
+                declare(((Function) statement).name);
+        for (Stmt statement : statements)
+            resolve(statement);
+    }
+
+    private void resolve(Stmt stmt) {
+        if (stmt != null)
+            stmt.accept(this);
+    }
+
+    private void resolve(Expr expr) {
+        if (expr != null)
+            expr.accept(this);
+    }
+
+    private int declare(Token name) {
+        if (scopes.isEmpty())
+            return -1;
+        Scope scope = scopes.get(scopes.size() - 1);
+        // redeclaring a name in the same scope reuses its slot
+        return scope.names.computeIfAbsent(name.lexeme, n -> scope.frame.size++);
+    }
+
+    // returns {depth, slot}, {-1, -1} for globals
+    private int[] lookup(Token name) {
+        int depth = 0;
+        boolean crossedFunction = false;
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Scope scope = scopes.get(i);
+            Integer slot = scope.names.get(name.lexeme);
+            if (slot != null) {
+                if (analyzing && crossedFunction && scope.block != null)
+                    captured.add(scope.block);
+                return new int[]{depth, slot};
+            }
+            crossedFunction |= scope.function;
+            if (i > 0 && scopes.get(i - 1).frame != scope.frame)
+                depth++;
+        }
+        return new int[]{-1, -1};
+    }
+
+    private Frame endScope() {
+        return scopes.remove(scopes.size() - 1).frame;
+    }
+
+
+    @Override
+    public Void visitAssignExpr(Assign expr) {
+        resolve(expr.value);
+        int[] binding = lookup(expr.name);
+        expr.depth = binding[0];
+        expr.slot = binding[1];
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Call expr) {
+        resolve(expr.callee);
+        for (Expr argument : expr.arguments)
+            resolve(argument);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Grouping expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Logical expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Unary expr) {
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Variable expr) {
+        int[] binding = lookup(expr.name);
+        expr.depth = binding[0];
+        expr.slot = binding[1];
+        return null;
+    }
+
+
+    @Override
+    public Void visitBlockStmt(Block stmt) {
+        boolean flat = flatten && !analyzing && !captured.contains(stmt);
+        Frame frame = !flat ? new Frame() : scopes.isEmpty() ? script : scopes.get(scopes.size() - 1).frame;
+        scopes.add(new Scope(frame, stmt, false));
+        resolveAll(stmt.statements);
+        endScope();
+        stmt.locals = flat ? -1 : frame.size;
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Expression stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Function stmt) {
+        // already declared by resolveAll, so the function can call itself and the ones after it
+        stmt.slot = declare(stmt.name);
+
+        scopes.add(new Scope(new Frame(), null, true));
+        for (Token parameter : stmt.parameters)
+            declare(parameter);
+        functionDepth++;
+        resolveAll(stmt.body);
+        functionDepth--;
+        stmt.locals = endScope().size;
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(If stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.thenBranch);
+        resolve(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Print stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Return stmt) {
+        stmt.tailCall = functionDepth > 0 && stmt.value instanceof Call;
+        resolve(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Var stmt) {
+        // the initializer still sees an outer variable of the same name
+        resolve(stmt.initializer);
+        stmt.slot = declare(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(While stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.body);
+        return null;
+    }
+}
@@ -0,0 +1,231 @@
+package com.thecout.lox.Traversal.Specialization;
+
+import com.thecout.lox.Parser.Expr.*;
+import com.thecout.lox.TokenType;
+import com.thecout.lox.Traversal.Interpreter;
+
+import static com.thecout.lox.Traversal.InterpreterUtils.Operators.apply;
+
+import java.util.Objects;
+
+/**
+ * Implementation of a {@link Binary} node. A node starts uninitialized, specializes on the operand types
+ * of its first execution and falls back to the generic version for good once a guard fails.
+ */
+public abstract class BinaryNode {
+    public static final BinaryNode UNINITIALIZED = new Uninitialized();
+    static final BinaryNode GENERIC = new Generic();
+
+    public abstract Object execute(Interpreter interpreter, Binary expr);
+
+    static Object deoptimize(Binary expr, Object left, Object right) {
+        expr.specialization = GENERIC;
+        return apply(expr.operator.type, left, right);
+    }
+
+    private static BinaryNode specialize(Binary expr, Object left, Object right) {
+        TokenType operator = expr.operator.type;
+        switch (operator) {
+            case EQUAL_EQUAL:
+                return new Equal();
+            case BANG_EQUAL:
+                return new NotEqual();
+            case PLUS:
+                if (left instanceof String && right instanceof String)
+                    return new StringConcat();
+                break;
+            default:
+                break;
+        }
+        if (!(left instanceof Double) || !(right instanceof Double))
+            return GENERIC;
+
+        return switch (operator) {
+            case PLUS -> new DoubleAdd();
+            case MINUS -> new DoubleSubtract();
+            case STAR -> new DoubleMultiply();
+            case SLASH -> new DoubleDivide();
+            case LESS -> new DoubleLess();
+            case LESS_EQUAL -> new DoubleLessEqual();
+            case GREATER -> new DoubleGreater();
+            case GREATER_EQUAL -> new DoubleGreaterEqual();
+            default -> GENERIC;
+        };
+    }
+
+    private static final class Uninitialized extends BinaryNode {
+        @Override
+        public Object execute(Interpreter interpreter, Binary expr) {
+            Object left = interpreter.evaluate(expr.left);
+            Object right = interpreter.evaluate(expr.right);
+            expr.specialization = specialize(expr, left, right);
+            return apply(expr.operator.type, left, right);
+        }
+    }
+
+    private static final class Generic extends BinaryNode {
+        @Override
+        public Object execute(Interpreter interpreter, Binary expr) {
+            Object left = interpreter.evaluate(expr.left);
+            return apply(expr.operator.type, left, interpreter.evaluate(expr.right));
+        }
+    }
+
+    /**
+     * Value of expr as an unboxed double, children that are double arithmetic nodes pass their result on
+     * without boxing it.
+     *
+     * @throws UnexpectedResult with the value if expr did not evaluate to a number
+     */
+    static double evaluateDouble(Interpreter interpreter, Expr expr) throws UnexpectedResult {
+        if (expr.specialization instanceof DoubleArithmetic)
+            return ((DoubleArithmetic) expr.specialization).executeDouble(interpreter, (Binary) expr);
+        Object value = interpreter.evaluate(expr);
+        if (value instanceof Double)
+            return (double) value;
+        throw new UnexpectedResult(value);
+    }
+
+    /**
+     * Base of the nodes that expect two numbers. The operands are evaluated unboxed,
+     * a non number rewrites the node to the generic version.
+     */
+    private abstract static class DoubleNode extends BinaryNode {
+        final double leftDouble(Interpreter interpreter, Binary expr) throws UnexpectedResult {
+            try {
+                return evaluateDouble(interpreter, expr.left);
+            } catch (UnexpectedResult e) {
+                throw new UnexpectedResult(deoptimize(expr, e.result, interpreter.evaluate(expr.right)));
+            }
+        }
+
+        final double rightDouble(Interpreter interpreter, Binary expr, double leftValue) throws UnexpectedResult {
+            try {
+                return evaluateDouble(interpreter, expr.right);
+            } catch (UnexpectedResult e) {
+                throw new UnexpectedResult(deoptimize(expr, leftValue, e.result));
+            }
+        }
+    }
+
+    private abstract static class DoubleArithmetic extends DoubleNode {
+        abstract double executeDouble(Interpreter interpreter, Binary expr) throws UnexpectedResult;
+
+        @Override
+        public Object execute(Interpreter interpreter, Binary expr) {
+            try {
+                return executeDouble(interpreter, expr);
+            } catch (UnexpectedResult e) {
+                return e.result;
+            }
+        }
+    }
+
+    private static final class DoubleAdd extends DoubleArithmetic {
+        @Override
+        double executeDouble(Interpreter interpreter, Binary expr) throws UnexpectedResult {
+            double left = leftDouble(interpreter, expr);
+            return left + rightDouble(interpreter, expr, left);
+        }
+    }
+
+    private static final class DoubleSubtract extends DoubleArithmetic {
+        @Override
+        double executeDouble(Interpreter interpreter, Binary expr) throws UnexpectedResult {
+            double left = leftDouble(interpreter, expr);
+            return left - rightDouble(interpreter, expr, left);
+        }
+    }
+
+    private static final class DoubleMultiply extends DoubleArithmetic {
+        @Override
+        double executeDouble(Interpreter interpreter, Binary expr) throws UnexpectedResult {
+            double left = leftDouble(interpreter, expr);
+            return left * rightDouble(interpreter, expr, left);
+        }
+    }
+
+    private static final class DoubleDivide extends DoubleArithmetic {
+        @Override
+        double executeDouble(Interpreter interpreter, Binary expr) throws UnexpectedResult {
+            double left = leftDouble(interpreter, expr);
+            return left / rightDouble(interpreter, expr, left);
+        }
+    }
+
+    private static final class DoubleLess extends DoubleNode {
+        @Override
+        public Object execute(Interpreter interpreter, Binary expr) {
+            try {
+                double left = leftDouble(interpreter, expr);
+                return left < rightDouble(interpreter, expr, left);
+            } catch (UnexpectedResult e) {
+                return e.result;
+            }
+        }
+    }
+
+    private static final class DoubleLessEqual extends DoubleNode {
+        @Override
+        public Object execute(Interpreter interpreter, Binary expr) {
+            try {
+                double left = leftDouble(interpreter, expr);
+                return left <= rightDouble(interpreter, expr, left);
+            } catch (UnexpectedResult e) {
+                return e.result;
+            }
+        }
+    }
+
+    private static final class DoubleGreater extends DoubleNode {
+        @Override
+        public Object execute(Interpreter interpreter, Binary expr) {
+            try {
+                double left = leftDouble(interpreter, expr);
+                return left > rightDouble(interpreter, expr, left);
+            } catch (UnexpectedResult e) {
+                return e.result;
+            }
+        }
+    }
+
+    private static final class DoubleGreaterEqual extends DoubleNode {
+        @Override
+        public Object execute(Interpreter interpreter, Binary expr) {
+            try {
+                double left = leftDouble(interpreter, expr);
+                return left >= rightDouble(interpreter, expr, left);
+            } catch (UnexpectedResult e) {
+                return e.result;
+            }
+        }
+    }
+
+    private static final class StringConcat extends BinaryNode {
+        @Override
+        public Object execute(Interpreter interpreter, Binary expr) {
+            Object left = interpreter.evaluate(expr.left);
+            Object right = interpreter.evaluate(expr.right);
+            if (left instanceof String && right instanceof String)
+                return (String) left + (String) right;
+            return deoptimize(expr, left, right);
+        }
+    }
+
+    // equality is defined for all types, these only save the operator switch
+    private static final class Equal extends BinaryNode {
+        @Override
+        public Object execute(Interpreter interpreter, Binary expr) {
+            Object left = interpreter.evaluate(expr.left);
+            return Objects.equals(left, interpreter.evaluate(expr.right));
+        }
+    }
+
+    private static final class NotEqual extends BinaryNode {
+        @Override
+        public Object execute(Interpreter interpreter, Binary expr) {
+            Object left = interpreter.evaluate(expr.left);
+            return !Objects.equals(left, interpreter.evaluate(expr.right));
+        }
+    }
+}
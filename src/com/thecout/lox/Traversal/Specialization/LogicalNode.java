@@ -0,0 +1,67 @@
+package com.thecout.lox.Traversal.Specialization;
+
+import com.thecout.lox.Parser.Expr.Logical;
+import com.thecout.lox.TokenType;
+import com.thecout.lox.Traversal.Interpreter;
+
+/**
+ * Implementation of a {@link Logical} node, specialized on the operator once the left operand was a boolean.
+ */
+public abstract class LogicalNode {
+    public static final LogicalNode UNINITIALIZED = new Uninitialized();
+    static final LogicalNode GENERIC = new Generic();
+
+    public abstract Object execute(Interpreter interpreter, Logical expr);
+
+    // the right operand is only evaluated if the left one does not decide the result
+    static Object apply(Interpreter interpreter, Logical expr, Object left) {
+        return switch (expr.operator.type) {
+            case OR -> (boolean) left || (boolean) interpreter.evaluate(expr.right);
+            case AND -> (boolean) left && (boolean) interpreter.evaluate(expr.right);
+            default -> null;
+        };
+    }
+
+    private static final class Uninitialized extends LogicalNode {
+        @Override
+        public Object execute(Interpreter interpreter, Logical expr) {
+            Object left = interpreter.evaluate(expr.left);
+            if (left instanceof Boolean && expr.operator.type == TokenType.OR)
+                expr.specialization = new BooleanOr();
+            else if (left instanceof Boolean && expr.operator.type == TokenType.AND)
+                expr.specialization = new BooleanAnd();
+            else
+                expr.specialization = GENERIC;
+            return apply(interpreter, expr, left);
+        }
+    }
+
+    private static final class Generic extends LogicalNode {
+        @Override
+        public Object execute(Interpreter interpreter, Logical expr) {
+            return apply(interpreter, expr, interpreter.evaluate(expr.left));
+        }
+    }
+
+    private static final class BooleanOr extends LogicalNode {
+        @Override
+        public Object execute(Interpreter interpreter, Logical expr) {
+            Object left = interpreter.evaluate(expr.left);
+            if (left instanceof Boolean)
+                return (boolean) left || (boolean) interpreter.evaluate(expr.right);
+            expr.specialization = GENERIC;
+            return apply(interpreter, expr, left);
+        }
+    }
+
+    private static final class BooleanAnd extends LogicalNode {
+        @Override
+        public Object execute(Interpreter interpreter, Logical expr) {
+            Object left = interpreter.evaluate(expr.left);
+            if (left instanceof Boolean)
+                return (boolean) left && (boolean) interpreter.evaluate(expr.right);
+            expr.specialization = GENERIC;
+            return apply(interpreter, expr, left);
+        }
+    }
+}
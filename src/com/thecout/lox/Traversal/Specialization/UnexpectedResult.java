@@ -0,0 +1,14 @@
+package com.thecout.lox.Traversal.Specialization;
+
+/**
+ * Thrown by the unboxed evaluation of a specialized node when the value is not of the expected type.
+ * Carries the value so nothing has to be evaluated twice.
+ */
+class UnexpectedResult extends Exception {
+    final Object result;
+
+    UnexpectedResult(Object result) {
+        super(null, null, false, false);
+        this.result = result;
+    }
+}
@@ -0,0 +1,67 @@
+package com.thecout.lox.Traversal.Specialization;
+
+import com.thecout.lox.Parser.Expr.Variable;
+import com.thecout.lox.Traversal.Interpreter;
+import com.thecout.lox.Traversal.InterpreterUtils.Environment;
+import com.thecout.lox.Traversal.InterpreterUtils.Thunk;
+
+/**
+ * Implementation of a {@link Variable} node, specialized on where the resolver put the variable.
+ * The specialized versions assume strict values and fall back to the generic version on the first thunk.
+ */
+public abstract class VariableNode {
+    public static final VariableNode UNINITIALIZED = new Uninitialized();
+    static final VariableNode GENERIC = new Generic();
+    static final VariableNode LOCAL = new Local();
+    static final VariableNode GLOBAL = new Global();
+
+    public abstract Object execute(Interpreter interpreter, Environment environment, Variable expr);
+
+    static Object lookUp(Interpreter interpreter, Environment environment, Variable expr) {
+        return expr.depth < 0 ? interpreter.globals.get(expr.name) : environment.getAt(expr.depth, expr.slot);
+    }
+
+    static Object deoptimize(Interpreter interpreter, Variable expr, Thunk value) {
+        expr.specialization = GENERIC;
+        return value.force(interpreter);
+    }
+
+    private static final class Uninitialized extends VariableNode {
+        @Override
+        public Object execute(Interpreter interpreter, Environment environment, Variable expr) {
+            Object value = lookUp(interpreter, environment, expr);
+            if (value instanceof Thunk)
+                return deoptimize(interpreter, expr, (Thunk) value);
+            expr.specialization = expr.depth < 0 ? GLOBAL : LOCAL;
+            return value;
+        }
+    }
+
+    private static final class Generic extends VariableNode {
+        @Override
+        public Object execute(Interpreter interpreter, Environment environment, Variable expr) {
+            Object value = lookUp(interpreter, environment, expr);
+            return value instanceof Thunk ? ((Thunk) value).force(interpreter) : value;
+        }
+    }
+
+    private static final class Local extends VariableNode {
+        @Override
+        public Object execute(Interpreter interpreter, Environment environment, Variable expr) {
+            Object value = environment.getAt(expr.depth, expr.slot);
+            if (value instanceof Thunk)
+                return deoptimize(interpreter, expr, (Thunk) value);
+            return value;
+        }
+    }
+
+    private static final class Global extends VariableNode {
+        @Override
+        public Object execute(Interpreter interpreter, Environment environment, Variable expr) {
+            Object value = interpreter.globals.get(expr.name);
+            if (value instanceof Thunk)
+                return deoptimize(interpreter, expr, (Thunk) value);
+            return value;
+        }
+    }
+}
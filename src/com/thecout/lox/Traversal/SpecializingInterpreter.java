@@ -0,0 +1,36 @@
+package com.thecout.lox.Traversal;
+
+import com.thecout.lox.Parser.Expr.Binary;
+import com.thecout.lox.Parser.Expr.Logical;
+import com.thecout.lox.Parser.Expr.Variable;
+import com.thecout.lox.Traversal.Specialization.BinaryNode;
+import com.thecout.lox.Traversal.Specialization.LogicalNode;
+import com.thecout.lox.Traversal.Specialization.VariableNode;
+
+/**
+ * Interpreter mode with type feedback: Binary, Logical and Variable nodes execute through
+ * the node implementation stored in {@link com.thecout.lox.Parser.Expr.Expr#specialization}.
+ * Each implementation handles one operator and one combination of operand types, so the JIT sees
+ * small monomorphic methods instead of the operator switch of the generic interpreter.
+ * Calls use the inline caches of the {@link Interpreter}.
+ */
+public class SpecializingInterpreter extends Interpreter {
+
+    @Override
+    public Object visitBinaryExpr(Binary expr) {
+        BinaryNode node = (BinaryNode) expr.specialization;
+        return (node != null ? node : BinaryNode.UNINITIALIZED).execute(this, expr);
+    }
+
+    @Override
+    public Object visitLogicalExpr(Logical expr) {
+        LogicalNode node = (LogicalNode) expr.specialization;
+        return (node != null ? node : LogicalNode.UNINITIALIZED).execute(this, expr);
+    }
+
+    @Override
+    public Object visitVariableExpr(Variable expr) {
+        VariableNode node = (VariableNode) expr.specialization;
+        return (node != null ? node : VariableNode.UNINITIALIZED).execute(this, environment, expr);
+    }
+}
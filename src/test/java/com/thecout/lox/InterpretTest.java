@@ -1,17 +1,28 @@
 package com.thecout.lox;
 
+import com.thecout.lox.Parser.AstCache;
 import com.thecout.lox.Parser.Parser;
+import com.thecout.lox.Parser.Stmts.Block;
 import com.thecout.lox.Parser.Stmts.Stmt;
+import com.thecout.lox.Parser.Stmts.While;
 import com.thecout.lox.Traversal.Interpreter;
+import com.thecout.lox.Traversal.InterpreterUtils.LoxCallable;
+import com.thecout.lox.Traversal.Resolver;
+import com.thecout.lox.Traversal.SpecializingInterpreter;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class InterpretTest {
     private static final ByteArrayOutputStream outContent = new ByteArrayOutputStream();
@@ -75,8 +86,371 @@ public class InterpretTest {
             }
             print printSum(2,5);
             
+            """;
+    static final String scopetest = """
+            var a = 1;
+            fun outer(b) {
+                var a = 2;
+                fun inner(c) {
+                    return a + b + c;
+                }
+                return inner(3);
+            }
+            print outer(10);
+            print a;
+            {
+                var a = 20;
+                {
+                    var b = 5;
+                    a = a + b;
+                }
+                print a;
+            }
+            """;
+    @Test
+    void scopeTest() {
+        Scanner scanner = new Scanner(scopetest);
+        List<Token> actual = scanner.scan();
+        Parser parser = new Parser(actual);
+        Interpreter interpreter = new Interpreter();
+        List<Stmt> statements = parser.parse();
+        interpreter.interpret(statements);
+        assertEquals("15\n1\n25", outContent.toString().trim().replace("\r", ""), "Closures and shadowed variables should resolve lexically");
+        outContent.reset();
+    }
+
+    static final String forwardreferencetest = """
+            fun outer() {
+                fun a() { return b(); }
+                fun b() { return 1; }
+                return a();
+            }
+            print outer();
+            {
+                fun isEven(n) {
+                    if (n == 0) return true;
+                    return isOdd(n - 1);
+                }
+                fun isOdd(n) {
+                    if (n == 0) return false;
+                    return isEven(n - 1);
+                }
+                print isEven(10);
+                print isOdd(7);
+            }
+            """;
+    @Test
+    void forwardReferenceTest() {
+        Scanner scanner = new Scanner(forwardreferencetest);
+        List<Token> actual = scanner.scan();
+        Parser parser = new Parser(actual);
+        Interpreter interpreter = new Interpreter();
+        List<Stmt> statements = parser.parse();
+        interpreter.interpret(statements);
+        assertEquals("1\ntrue\ntrue", outContent.toString().trim().replace("\r", ""), "Local functions should see the local functions declared after them");
+        outContent.reset();
+    }
+    static final String evaloncetest = """
+            var count = 0;
+            fun next() {
+                count = count + 1;
+                return count;
+            }
+            var a = next();
+            print a;
+            print a;
+            fun twice(x) {
+                return x + x;
+            }
+            print twice(next());
+            var unused = next();
+            print count;
+            """;
+    @Test
+    void evalOnceTest() {
+        Scanner scanner = new Scanner(evaloncetest);
+        List<Token> actual = scanner.scan();
+        Parser parser = new Parser(actual);
+        Interpreter interpreter = new Interpreter();
+        List<Stmt> statements = parser.parse();
+        interpreter.interpret(statements);
+        assertEquals("1\n1\n4\n3", outContent.toString().trim().replace("\r", ""), "Initializers and arguments should be evaluated exactly once");
+        outContent.reset();
+
+        interpreter = new Interpreter();
+        interpreter.setLazy(true);
+        interpreter.interpret(statements);
+        assertEquals("1\n1\n4\n2", outContent.toString().trim().replace("\r", ""), "Lazy mode should evaluate on first read only");
+        outContent.reset();
+    }
+    static final String specializetest = """
+            fun add(a,b) {
+                return a + b;
+            }
+            print add(1,2);
+            print add("a","b");
+            print add(3,4);
+            var i = 0;
+            var s = "";
+            while(i < 3) {
+                s = s + "x";
+                i = i + 1;
+            }
+            print s;
+            print i == 3 and s == "xxx";
+            """;
+    @Test
+    void specializeTest() {
+        Scanner scanner = new Scanner(specializetest);
+        List<Token> actual = scanner.scan();
+        Parser parser = new Parser(actual);
+        List<Stmt> statements = parser.parse();
+        new Interpreter().interpret(statements);
+        assertEquals("3\nab\n7\nxxx\ntrue", outContent.toString().trim().replace("\r", ""), "Strings should concatenate with +");
+        outContent.reset();
+
+        // twice, the second run starts with the nodes the first one specialized
+        for (int run = 0; run < 2; run++) {
+            Interpreter interpreter = new SpecializingInterpreter();
+            interpreter.interpret(statements);
+            assertEquals("3\nab\n7\nxxx\ntrue", outContent.toString().trim().replace("\r", ""), "Specialized nodes should fall back when the types change");
+            outContent.reset();
+        }
+    }
+    static final String functionvaluetest = """
+            fun twice(x) {
+                return x * 2;
+            }
+            var f = twice;
+            print f(21);
+            fun apply(g, v) {
+                return g(v);
+            }
+            print apply(twice, 5);
+            print clock == clock;
+            """;
+    @Test
+    void functionValueTest() {
+        Scanner scanner = new Scanner(functionvaluetest);
+        List<Token> actual = scanner.scan();
+        Parser parser = new Parser(actual);
+        new Interpreter().interpret(parser.parse());
+        assertEquals("42\n10\ntrue", outContent.toString().trim().replace("\r", ""), "A function name without a call should be the function");
+        outContent.reset();
+    }
+    static final String returntest = """
+            fun find(limit) {
+                var i = 0;
+                while (true) {
+                    {
+                        if (i * i > limit) return i;
+                    }
+                    i = i + 1;
+                }
+                print "unreachable";
+            }
+            fun nothing() {
+                if (false) return 1;
+            }
+            print find(50);
+            print nothing();
+            print find(10) + find(20);
+            """;
+    @Test
+    void returnTest() {
+        Scanner scanner = new Scanner(returntest);
+        List<Token> actual = scanner.scan();
+        Parser parser = new Parser(actual);
+        new Interpreter().interpret(parser.parse());
+        assertEquals("8\nnull\n9", outContent.toString().trim().replace("\r", ""), "Return should leave loops and blocks of the function");
+        outContent.reset();
+    }
+    static final String tailcalltest = """
+            fun count(n, acc) {
+                if (n == 0) return acc;
+                return count(n - 1, acc + 1);
+            }
+            print count(1000000, 0);
+            fun even(n) {
+                if (n == 0) return true;
+                return odd(n - 1);
+            }
+            fun odd(n) {
+                if (n == 0) return false;
+                return even(n - 1);
+            }
+            print even(100001);
             """;
     @Test
+    void tailCallTest() {
+        Scanner scanner = new Scanner(tailcalltest);
+        List<Token> actual = scanner.scan();
+        Parser parser = new Parser(actual);
+        new Interpreter().interpret(parser.parse());
+        assertEquals("1000000\nfalse", outContent.toString().trim().replace("\r", ""), "Tail calls should not grow the stack");
+        outContent.reset();
+    }
+    static final String deeprecursiontest = """
+            fun deep(n) {
+                if (n == 0) return 0;
+                return 1 + deep(n - 1);
+            }
+            print deep(200000);
+            fun sum(n) {
+                var total = 0;
+                while (n > 0) {
+                    total = total + deep(n);
+                    n = n - 100000;
+                }
+                return total;
+            }
+            print sum(200000) + deep(5);
+            """;
+    @Test
+    void deepRecursionTest() {
+        Scanner scanner = new Scanner(deeprecursiontest);
+        List<Token> actual = scanner.scan();
+        Parser parser = new Parser(actual);
+        new Interpreter().interpret(parser.parse());
+        assertEquals("200000\n300005", outContent.toString().trim().replace("\r", ""), "Deep calls should continue on the heap");
+        outContent.reset();
+    }
+    @Test
+    void continuationModeTest() {
+        // every call runs on the heap, the output has to stay the same
+        for (String program : List.of(arithmetic1, arithmetic2, arithmetic3, conditionaltest1, looptest, looptest2,
+                scopetest, evaloncetest, specializetest, functionvaluetest, returntest, tailcalltest, inlinecachetest,
+                escapetest, VmTest.closuretest)) {
+            List<Stmt> statements = new Parser(new Scanner(program).scan()).parse();
+            new Interpreter().interpret(statements);
+            String expected = outContent.toString().trim();
+            outContent.reset();
+
+            Interpreter interpreter = new Interpreter();
+            interpreter.setStackDepth(0);
+            interpreter.interpret(statements);
+            assertEquals(expected, outContent.toString().trim(), "Continuation mode should not change the output of\n" + program);
+            outContent.reset();
+        }
+    }
+    static final String inlinecachetest = """
+            fun one() {
+                return 1;
+            }
+            fun two() {
+                return 2;
+            }
+            var f = one;
+            var i = 0;
+            var sum = 0;
+            while (i < 4) {
+                sum = sum + f();
+                if (i == 1) f = two;
+                i = i + 1;
+            }
+            print sum;
+            fun callOne() {
+                return one() + 0;
+            }
+            print callOne();
+            fun one() {
+                return 10;
+            }
+            print callOne();
+            """;
+    @Test
+    void inlineCacheTest() {
+        Scanner scanner = new Scanner(inlinecachetest);
+        List<Token> actual = scanner.scan();
+        Parser parser = new Parser(actual);
+        List<Stmt> statements = parser.parse();
+        new Interpreter().interpret(statements);
+        assertEquals("6\n1\n10", outContent.toString().trim().replace("\r", ""), "Cached calls should see a reassigned function");
+        outContent.reset();
+
+        // the call sites are cached for the first interpreter's globals now
+        new SpecializingInterpreter().interpret(statements);
+        assertEquals("6\n1\n10", outContent.toString().trim().replace("\r", ""), "Call sites should not be shared between interpreters");
+        outContent.reset();
+    }
+    @Test
+    void nativeCallTest() {
+        // only implements the list form, the arity entry points have to fall back to it
+        LoxCallable sum = new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                double total = 0;
+                for (Object argument : arguments)
+                    total += (double) argument;
+                return total;
+            }
+        };
+        Interpreter interpreter = new Interpreter();
+        interpreter.globals.define("sum", sum);
+        interpreter.interpret(new Parser(new Scanner("print sum() + sum(1) + sum(1, 2) + sum(1, 2, 3);").scan()).parse());
+        assertEquals("10", outContent.toString().trim(), "Natives should get the arguments of every arity");
+        outContent.reset();
+    }
+    static final String escapetest = """
+            var first;
+            var second;
+            var i = 0;
+            while (i < 2) {
+                var x = i * 10;
+                fun get() {
+                    return x;
+                }
+                if (i == 0) first = get; else second = get;
+                i = i + 1;
+            }
+            print first();
+            print second();
+            {
+                var a = 1;
+                {
+                    var a = 2;
+                    var b = a + 1;
+                    print b;
+                }
+                print a;
+            }
+            fun sum(n) {
+                var total = 0;
+                while (n > 0) {
+                    {
+                        var step = n;
+                        total = total + step;
+                    }
+                    n = n - 1;
+                }
+                return total;
+            }
+            print sum(4);
+            """;
+    @Test
+    void escapeTest() {
+        List<Stmt> statements = new Parser(new Scanner(escapetest).scan()).parse();
+        new Resolver(true).resolve(statements);
+        assertTrue(((Block) ((While) statements.get(3)).body).locals > 0, "Captured block should keep its environment");
+        assertEquals(-1, ((Block) statements.get(6)).locals, "Uncaptured block should run in the enclosing environment");
+
+        new Interpreter().interpret(statements);
+        assertEquals("0\n10\n3\n1\n10", outContent.toString().trim().replace("\r", ""), "Each loop iteration should capture its own variable");
+        outContent.reset();
+
+        // lazy mode does not flatten, x is only computed when the closures run after the loop
+        Interpreter interpreter = new Interpreter();
+        interpreter.setLazy(true);
+        interpreter.interpret(statements);
+        assertEquals("20\n20\n3\n1\n10", outContent.toString().trim().replace("\r", ""), "Lazy blocks should keep their own environment");
+        outContent.reset();
+    }
+    @Test
     void loopTest2() {
         Scanner scanner = new Scanner(looptest2);
         List<Token> actual = scanner.scan();
@@ -121,6 +495,25 @@ public class InterpretTest {
         outContent.reset();
     }
 
+    static final String arithmetic3 = """
+            fun f(a,b) {
+                return -(a + b) * 4 - b / 4 + -a;
+            }
+            print f(2,3);
+            print f(2,3) < -22 == true;
+            """;
+    @Test
+    void arithmeticTest3() {
+        Scanner scanner = new Scanner(arithmetic3);
+        List<Token> actual = scanner.scan();
+        Parser parser = new Parser(actual);
+        Interpreter interpreter = new Interpreter();
+        List<Stmt> statements = parser.parse();
+        interpreter.interpret(statements);
+        assertEquals("-22.75\ntrue", outContent.toString().trim().replace("\r", ""), "Arithmetic test 3 should eval to -22.75");
+        outContent.reset();
+    }
+
     @Test
     void arithmeticTest() {
         Scanner scanner = new Scanner(arithmetic1);
@@ -143,4 +536,25 @@ public class InterpretTest {
         interpreter.interpret(statements);
         outContent.reset();
     }
+
+    @Test
+    void cacheTest(@TempDir Path dir) throws IOException {
+        Path source = dir.resolve("arithmetic.lox");
+        Files.writeString(source, arithmetic2);
+        AstCache.load(source);
+        assertTrue(Files.exists(AstCache.cachePath(source)), "Expected a .loxc file next to the source");
+
+        Interpreter interpreter = new Interpreter();
+        interpreter.interpret(AstCache.load(source));
+        assertEquals("13", outContent.toString().trim(), "Arithmetic test 2 from the cache should eval to 13");
+        outContent.reset();
+
+        Files.writeString(source, arithmetic1);
+        interpreter.interpret(AstCache.load(source));
+        assertEquals("7", outContent.toString().trim(), "A changed source should not be served from the cache");
+        outContent.reset();
+        try (var files = Files.list(dir)) {
+            assertEquals(2, files.count(), "Expected only the source and its cache, no temporary files");
+        }
+    }
 }
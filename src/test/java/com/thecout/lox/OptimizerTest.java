@@ -0,0 +1,234 @@
+package com.thecout.lox;
+
+import com.thecout.lox.Bytecode.VM;
+import com.thecout.lox.Optimizer.ConstantFolder;
+import com.thecout.lox.Optimizer.Inliner;
+import com.thecout.lox.Optimizer.Optimizer;
+import com.thecout.lox.Parser.Expr.Literal;
+import com.thecout.lox.Parser.Parser;
+import com.thecout.lox.Parser.Stmts.Block;
+import com.thecout.lox.Parser.Stmts.Function;
+import com.thecout.lox.Parser.Stmts.Print;
+import com.thecout.lox.Parser.Stmts.Stmt;
+import com.thecout.lox.Traversal.Interpreter;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OptimizerTest {
+    private static final ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+    private static final PrintStream originalOut = System.out;
+
+    @BeforeAll
+    public static void setUpStreams() {
+        System.setOut(new PrintStream(outContent));
+    }
+
+    @AfterAll
+    public static void restoreStreams() {
+        System.setOut(originalOut);
+    }
+
+    private static List<Stmt> parse(String program) {
+        return new Parser(new Scanner(program).scan()).parse();
+    }
+
+    private static String output() {
+        String output = outContent.toString().trim().replace("\r", "");
+        outContent.reset();
+        return output;
+    }
+
+    private static String interpret(String program, boolean optimize) {
+        Interpreter interpreter = new Interpreter();
+        interpreter.setOptimize(optimize);
+        interpreter.interpret(parse(program));
+        return output();
+    }
+
+    private static String run(String program, boolean optimize) {
+        VM vm = new VM();
+        vm.setOptimize(optimize);
+        vm.interpret(parse(program));
+        return output();
+    }
+
+    static final String foldtest = """
+            var day = 60 * 60 * 24;
+            print day;
+            var greeting = "hello" + " " + "world";
+            print greeting;
+            var counter = 1;
+            counter = counter + 1;
+            print counter;
+            {
+                var day = 2;
+                print day * 3;
+            }
+            fun scale(n) {
+                var factor = 10;
+                var day = n;
+                return day * factor;
+            }
+            print scale(4);
+            if (1 < 2) print "then"; else print "else";
+            while (false) print "never";
+            print !(1 == 2) and -day < 0;
+            """;
+
+    static final String deadcodetest = """
+            fun unused(a) {
+                return helper(a);
+            }
+            fun helper(a) {
+                return a + 1;
+            }
+            fun used(a) {
+                fun inner() {
+                    return a * 2;
+                }
+                fun neverCalled() {
+                    return 0;
+                }
+                return inner();
+                print "unreachable";
+            }
+            var unusedVar = 3;
+            var sideEffect = used(4);
+            print sideEffect;
+            {
+                fun unusedLocal() {
+                    return 1;
+                }
+                var unusedLocalVar = 2;
+                print sideEffect;
+            }
+            """;
+
+    static final String inlinetest = """
+            fun square(x) {
+                return x * x;
+            }
+            fun between(x, low, high) {
+                return low <= x and x <= high;
+            }
+            fun offset(x) {
+                return x + base;
+            }
+            fun twice(f, x) {
+                return f(f(x));
+            }
+            var base = 0;
+            base = 100;
+            var total = 0;
+            for (var i = 0; i < 5; i = i + 1) {
+                total = total + square(i);
+            }
+            print total;
+            print square(3);
+            print between(total, 10, 50);
+            {
+                var base = 1;
+                print offset(base);
+            }
+            print offset(2);
+            print square(total + 1);
+            print twice(square, 2);
+            """;
+
+    static final String shortcircuittest = """
+            fun both(a, b) {
+                return a or b;
+            }
+            var yes = true;
+            print both(false, yes);
+            print both(yes, false);
+            print both(true, undefinedThing);
+            """;
+
+    @Test
+    void sameOutput() {
+        for (String program : List.of(foldtest, deadcodetest, inlinetest, shortcircuittest,
+                InterpretTest.arithmetic1, InterpretTest.arithmetic2,
+                InterpretTest.arithmetic3, InterpretTest.conditionaltest1, InterpretTest.looptest,
+                InterpretTest.looptest2, InterpretTest.scopetest, InterpretTest.evaloncetest,
+                InterpretTest.specializetest)) {
+            assertEquals(interpret(program, false), interpret(program, true), "Optimizer should not change the output of\n" + program);
+            assertEquals(run(program, false), run(program, true), "Optimizer should not change the VM output of\n" + program);
+        }
+        assertEquals("86400\nhello world\n2\n6\n40\nthen\ntrue", interpret(foldtest, true));
+    }
+
+    @Test
+    void folding() {
+        List<Stmt> statements = new ConstantFolder().fold(parse(foldtest));
+        Print day = (Print) statements.get(1);
+        assertTrue(day.expression instanceof Literal, "Constant variable should be propagated");
+        assertEquals(86400.0, ((Literal) day.expression).value);
+        assertEquals("hello world", ((Literal) ((Print) statements.get(3)).expression).value);
+        assertFalse(((Print) statements.get(6)).expression instanceof Literal, "Assigned variable should not be propagated");
+        assertEquals(12, statements.size(), "Constant if should be replaced by its branch and while(false) removed");
+        assertEquals("then", ((Literal) ((Print) statements.get(10)).expression).value);
+        assertEquals(true, ((Literal) ((Print) statements.get(11)).expression).value);
+    }
+
+    @Test
+    void deadCode() {
+        List<Stmt> statements = Optimizer.optimize(parse(deadcodetest));
+        assertEquals(7, statements.size(), "Global declarations should be kept");
+        Function used = (Function) statements.get(2);
+        assertEquals("used", used.name.lexeme);
+        assertEquals(2, used.body.size(), "Unused inner function and code after return should be removed");
+        assertEquals(1, ((Block) statements.get(6)).statements.size(), "Unused local function and variable should be removed");
+        assertEquals("8\n8", interpret(deadcodetest, true));
+    }
+
+    @Test
+    void globalsOutliveInterpret() {
+        Interpreter interpreter = new Interpreter();
+        interpreter.setOptimize(true);
+        interpreter.interpret(parse("fun f() { return 42; } var k = 1;"));
+        interpreter.interpret(parse("print f(); print k;"));
+        assertEquals("42\n1", output(), "Unused globals should stay for a later interpret");
+
+        VM vm = new VM();
+        vm.setOptimize(true);
+        vm.interpret(parse("fun f() { return 42; } var k = 1;"));
+        vm.interpret(parse("print f(); print k;"));
+        assertEquals("42\n1", output(), "Unused globals should stay for a later interpret on the VM");
+    }
+
+    @Test
+    void inlining() {
+        Inliner inliner = new Inliner(16);
+        inliner.inline(parse(inlinetest));
+        assertEquals(List.of("square at line 17", "square at line 20", "between at line 21", "offset at line 26"),
+                inliner.inlined(), "Only calls with literal or variable arguments and no shadowed globals should be inlined");
+
+        List<Stmt> prints = Optimizer.optimize(parse(inlinetest)).stream()
+                .filter(statement -> statement instanceof Print).collect(Collectors.toList());
+        assertEquals(9.0, ((Literal) ((Print) prints.get(1)).expression).value, "Inlined call with literal arguments should be folded");
+        assertEquals("30\n9\ntrue\n101\n102\n961\n16", interpret(inlinetest, true));
+
+        Inliner shortCircuit = new Inliner(16);
+        shortCircuit.inline(parse(shortcircuittest));
+        assertEquals(List.of("both at line 6"), shortCircuit.inlined(), "Variable arguments that are not always read should not be inlined");
+
+        Inliner none = new Inliner(0);
+        none.inline(parse(inlinetest));
+        assertTrue(none.inlined().isEmpty(), "A budget of 0 should disable inlining");
+    }
+
+    @Test
+    void typeErrorsAreKept() {
+        List<Stmt> statements = Optimizer.optimize(parse("print 1 + \"a\";"));
+        assertFalse(((Print) statements.get(0)).expression instanceof Literal, "Failing operation should be left to the interpreter");
+    }
+}
@@ -1,5 +1,7 @@
 package com.thecout.lox;
 
+import com.thecout.lox.Parser.FlatAst;
+import com.thecout.lox.Parser.IncrementalParser;
 import com.thecout.lox.Parser.Parser;
 import com.thecout.lox.Parser.Stmts.Function;
 import com.thecout.lox.Parser.Stmts.Print;
@@ -57,4 +59,90 @@ public class ParserTest {
         assertEquals(((Function) statements.get(0)).parameters.get(0).type, TokenType.IDENTIFIER, "Expected first function parameter to be identifier");
 
     }
+
+    @Test
+    void parseBufferTest() {
+        List<Stmt> expected = new Parser(new Scanner(program).scan()).parse();
+        List<Stmt> actual = new Parser(new Scanner(program).scanBuffer()).parse();
+        assertEquals(expected.size(), actual.size(), "Expected " + expected.size() + " statements, got " + actual.size());
+        assertTrue(actual.get(0) instanceof Function, "Expected Type Function got " + actual.get(0).getClass().getName());
+        assertEquals(((Function) expected.get(0)).body.size(), ((Function) actual.get(0)).body.size(), "Expected the same function body");
+    }
+
+    @Test
+    void parseFlatTest() {
+        List<Stmt> expected = new Parser(new Scanner(program).scan()).parse();
+        FlatAst flat = new Parser(new Scanner(program).scan()).parseFlat();
+        List<Stmt> actual = flat.statements();
+        assertEquals(expected.size(), actual.size(), "Expected " + expected.size() + " statements, got " + actual.size());
+        assertTrue(actual.get(0) instanceof Function, "Expected Type Function got " + actual.get(0).getClass().getName());
+        assertTrue(actual.get(1) instanceof Print, "Expected Type Print got " + actual.get(1).getClass().getName());
+        List<Stmt> expectedBody = ((Function) expected.get(0)).body;
+        List<Stmt> actualBody = ((Function) actual.get(0)).body;
+        assertEquals(expectedBody.size(), actualBody.size(), "Expected the same function body");
+        for (int i = 0; i < expectedBody.size(); i++)
+            assertEquals(expectedBody.get(i).getClass(), actualBody.get(i).getClass(), "Expected the same statement types");
+        assertEquals(((Print) expected.get(1)).expression.getClass(), ((Print) actual.get(1)).expression.getClass(), "Expected the same print statement");
+        assertTrue(actual.get(0) == flat.statements().get(0), "Expected nodes to be materialized only once");
+    }
+
+    @Test
+    void parseParallelTest() {
+        String source = (program + """
+                if (1 < 2) { print 1; } else { print 2; }
+                if (1 < 2) print 1; else print 2;
+                for (var i = 0; i < 3; i = i + 1) print i;
+                """).repeat(50);
+        List<Stmt> expected = new Parser(new Scanner(source).scan()).parse();
+        List<Stmt> actual = new Parser(new Scanner(source).scan()).parseParallel();
+        assertEquals(expected.size(), actual.size(), "Expected " + expected.size() + " statements, got " + actual.size());
+        for (int i = 0; i < expected.size(); i++)
+            assertEquals(expected.get(i).getClass(), actual.get(i).getClass(), "Expected the same statement types");
+    }
+
+    @Test
+    void parseErrorsTest() {
+        String source = """
+                var = 1;
+                print 1;
+                if (1 <) print 5;
+                fun fine() {
+                    print );
+                    print 2;
+                }
+                print 3 +;
+                print 4;
+                """;
+        Parser parser = new Parser(new Scanner(source).scan());
+        List<Stmt> statements = parser.parse();
+        assertEquals(4, parser.getErrors().size(), "Expected 4 errors, got " + parser.getErrors());
+        assertTrue(statements.stream().anyMatch(s -> s instanceof Function && ((Function) s).name.lexeme.equals("fine")), "Expected function after an error to be parsed");
+        assertTrue(statements.get(statements.size() - 1) instanceof Print, "Expected statement after the last error to be parsed");
+    }
+
+    @Test
+    void parseIncrementalTest() {
+        String source = """
+                fun first(a) {
+                    return a + 1;
+                }
+                print first(1);
+                fun last(b) {
+                    return b * 2;
+                }
+                """;
+        IncrementalParser parser = new IncrementalParser(source);
+        List<Stmt> before = parser.statements();
+
+        List<Stmt> after = parser.edit(source.indexOf("first(1)"), 8, "first(2) +\n first(3)");
+        assertEquals(1, parser.reparsedSegments(), "Expected only the edited statement to be parsed again");
+        assertTrue(before.get(0) == after.get(0), "Expected the function before the edit to be reused");
+        assertTrue(before.get(2) == after.get(2), "Expected the function after the edit to be reused");
+        assertEquals(5, ((Function) after.get(2)).name.line, "Expected reused tokens not to be changed by the edit");
+
+        List<Stmt> expected = new Parser(new Scanner(parser.source()).scan()).parse();
+        assertEquals(expected.size(), after.size(), "Expected " + expected.size() + " statements, got " + after.size());
+        for (int i = 0; i < expected.size(); i++)
+            assertEquals(expected.get(i).getClass(), after.get(i).getClass(), "Expected the same statement types");
+    }
 }
@@ -2,6 +2,10 @@ package com.thecout.lox;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -54,4 +58,114 @@ public class ScannerTest {
         assertEquals(TokenType.STRING, actual.get(1).type, "Expected " + TokenType.STRING + ", got " + actual.get(1).type);
         assertEquals("Hello World", actual.get(1).literal, "Expected Hello World got " + actual.get(1).literal);
     }
+
+    @Test
+    void scanIdentifierColumns() {
+        List<Token> actual = new Scanner("var Foo = _bar2;\n  print Foo;").scan();
+        List<TokenType> types = Arrays.asList(TokenType.VAR, TokenType.IDENTIFIER, TokenType.EQUAL, TokenType.IDENTIFIER,
+                TokenType.SEMICOLON, TokenType.PRINT, TokenType.IDENTIFIER, TokenType.SEMICOLON, TokenType.EOF);
+        int[] columns = {3, 7, 9, 15, 16, 7, 11, 12};
+        assertEquals(types.size(), actual.size(), "Expected " + types.size() + " tokens, got " + actual.size());
+        for (int i = 0; i < columns.length; i++) {
+            assertEquals(types.get(i), actual.get(i).type, "Expected " + types.get(i) + ", got " + actual.get(i).type);
+            assertEquals(columns[i], actual.get(i).idx, "Expected idx " + columns[i] + ", got " + actual.get(i).idx);
+        }
+        assertEquals("Foo", actual.get(1).lexeme, "Expected identifier starting with an uppercase letter");
+    }
+
+    @Test
+    void scanStream() {
+        List<Token> expected = new Scanner(program).scan();
+        List<Token> fromReader = new ArrayList<>();
+        new TokenStream(new StringReader(program)).forEachRemaining(fromReader::add);
+        List<Token> fromBuffer = new ArrayList<>();
+        TokenStream.of(ByteBuffer.wrap(program.getBytes(StandardCharsets.UTF_8))).forEachRemaining(fromBuffer::add);
+
+        assertEquals(expected.size(), fromReader.size(), "Expected " + expected.size() + " tokens, got " + fromReader.size());
+        assertEquals(expected.size(), fromBuffer.size(), "Expected " + expected.size() + " tokens, got " + fromBuffer.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).type, fromReader.get(i).type, "Expected " + expected.get(i).type + ", got " + fromReader.get(i).type);
+            assertEquals(expected.get(i).line, fromReader.get(i).line, "Expected line " + expected.get(i).line + ", got " + fromReader.get(i).line);
+            assertEquals(expected.get(i).lexeme, fromBuffer.get(i).lexeme, "Expected " + expected.get(i).lexeme + ", got " + fromBuffer.get(i).lexeme);
+        }
+    }
+
+    @Test
+    void scanStreamCarriageReturn() {
+        String source = "var a = 1;\rprint a;\r\nprint \"b\";\n\rprint 2;";
+        List<Token> expected = new Scanner(source).scan();
+        List<Token> actual = new ArrayList<>();
+        new TokenStream(new StringReader(source)).forEachRemaining(actual::add);
+        assertEquals(expected.size(), actual.size(), "Expected " + expected.size() + " tokens, got " + actual.size());
+        for (int i = 0; i < expected.size(); i++)
+            assertEquals(expected.get(i).line, actual.get(i).line, "Expected line " + expected.get(i).line + ", got " + actual.get(i).line);
+    }
+
+    @Test
+    void scanBuffer() {
+        List<Token> expected = new Scanner(program).scan();
+        TokenBuffer actual = new Scanner(program).scanBuffer();
+        assertEquals(expected.size(), actual.size(), "Expected " + expected.size() + " tokens, got " + actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Token token = actual.token(i);
+            assertEquals(expected.get(i).type, actual.type(i), "Expected " + expected.get(i).type + ", got " + actual.type(i));
+            assertEquals(expected.get(i).lexeme, token.lexeme, "Expected " + expected.get(i).lexeme + ", got " + token.lexeme);
+            assertEquals(expected.get(i).literal, token.literal, "Expected " + expected.get(i).literal + ", got " + token.literal);
+            assertEquals(expected.get(i).line, token.line, "Expected line " + expected.get(i).line + ", got " + token.line);
+            assertEquals(expected.get(i).idx, token.idx, "Expected idx " + expected.get(i).idx + ", got " + token.idx);
+        }
+    }
+
+    @Test
+    void scanParallel() {
+        String source = (program + "// comment \"in\" between\n").repeat(5000);
+        List<Token> expected = new Scanner(source).scan();
+        List<Token> actual = new Scanner(source).scanParallel();
+        assertEquals(expected.size(), actual.size(), "Expected " + expected.size() + " tokens, got " + actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).type, actual.get(i).type, "Expected " + expected.get(i).type + ", got " + actual.get(i).type);
+            assertEquals(expected.get(i).line, actual.get(i).line, "Expected line " + expected.get(i).line + ", got " + actual.get(i).line);
+            assertEquals(expected.get(i).idx, actual.get(i).idx, "Expected idx " + expected.get(i).idx + ", got " + actual.get(i).idx);
+        }
+    }
+
+    @Test
+    void scanIncremental() {
+        IncrementalScanner scanner = new IncrementalScanner(program);
+        List<Token> before = scanner.tokens();
+        scanner.edit(program.indexOf("a+b"), 3, "a * (b - 1)");
+        scanner.edit(0, 0, "var x = 1;\n// comment\n");
+        scanner.edit(scanner.source().indexOf("25+60;\n"), 7, "\"no\nnewline\"");
+
+        List<Token> expected = new Scanner(scanner.source()).scan();
+        List<Token> actual = scanner.tokens();
+        assertEquals(expected.size(), actual.size(), "Expected " + expected.size() + " tokens, got " + actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).lexeme, actual.get(i).lexeme, "Expected " + expected.get(i).lexeme + ", got " + actual.get(i).lexeme);
+            assertEquals(expected.get(i).line, actual.get(i).line, "Expected line " + expected.get(i).line + ", got " + actual.get(i).line);
+            assertEquals(expected.get(i).idx, actual.get(i).idx, "Expected idx " + expected.get(i).idx + ", got " + actual.get(i).idx);
+        }
+        List<Token> original = new Scanner(program).scan();
+        for (int i = 0; i < original.size(); i++)
+            assertEquals(original.get(i).line, before.get(i).line, "Expected tokens handed out before an edit not to change");
+    }
+
+    @Test
+    void scanIncrementalChunks() {
+        String source = (program + "// comment \"in\" between\n").repeat(200);
+        IncrementalScanner scanner = new IncrementalScanner(source);
+        int middle = source.length() / 2;
+        scanner.edit(middle, 0, "\nprint 1;\n");
+        scanner.edit(0, program.length(), "");
+        scanner.edit(scanner.source().length() - 3, 3, "x\n\ny");
+        scanner.edit(10, scanner.source().length() / 2, "var a = \"s\";");
+
+        List<Token> expected = new Scanner(scanner.source()).scan();
+        List<Token> actual = scanner.tokens();
+        assertEquals(expected.size(), actual.size(), "Expected " + expected.size() + " tokens, got " + actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).lexeme, actual.get(i).lexeme, "Expected " + expected.get(i).lexeme + ", got " + actual.get(i).lexeme);
+            assertEquals(expected.get(i).line, actual.get(i).line, "Expected line " + expected.get(i).line + ", got " + actual.get(i).line);
+        }
+    }
 }
@@ -0,0 +1,142 @@
+package com.thecout.lox;
+
+import com.thecout.lox.Bytecode.VM;
+import com.thecout.lox.Parser.Parser;
+import com.thecout.lox.Parser.Stmts.Stmt;
+import com.thecout.lox.Traversal.Interpreter;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class VmTest {
+    private static final ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+    private static final PrintStream originalOut = System.out;
+
+    @BeforeAll
+    public static void setUpStreams() {
+        System.setOut(new PrintStream(outContent));
+    }
+
+    @AfterAll
+    public static void restoreStreams() {
+        System.setOut(originalOut);
+    }
+
+    private static String run(String program) {
+        Scanner scanner = new Scanner(program);
+        List<Token> actual = scanner.scan();
+        Parser parser = new Parser(actual);
+        List<Stmt> statements = parser.parse();
+        new VM().interpret(statements);
+        String output = outContent.toString().trim().replace("\r", "");
+        outContent.reset();
+        return output;
+    }
+
+    // output of the tree walking interpreter, the VM has to agree with it
+    private static String interpret(String program) {
+        new Interpreter().interpret(new Parser(new Scanner(program).scan()).parse());
+        String output = outContent.toString().trim().replace("\r", "");
+        outContent.reset();
+        return output;
+    }
+
+    static final String closuretest = """
+            fun outer() {
+                var count = 0;
+                fun increment() {
+                    count = count + 1;
+                    return count;
+                }
+                increment();
+                increment();
+                return count;
+            }
+            print outer();
+            {
+                var a = 1;
+                fun show() {
+                    return a;
+                }
+                a = 3;
+                print show();
+            }
+            """;
+    static final String recursiontest = """
+            fun fib(n) {
+                if (n < 2) return n;
+                return fib(n - 1) + fib(n - 2);
+            }
+            print fib(20);
+            fun depth(n) {
+                if (n == 0) return 0;
+                return 1 + depth(n - 1);
+            }
+            print depth(50000);
+            print "done" == "done" and 1 + 1 == 2;
+            """;
+
+    static final String deeprecursiontest = """
+            fun depth(n) {
+                if (n == 0) return 0;
+                return 1 + depth(n - 1);
+            }
+            print depth(1000000);
+            """;
+
+    static final String toplevelreturntest = """
+            print 1;
+            {
+                var a = 2;
+                fun show() {
+                    return a;
+                }
+                if (show() == 2) return 5;
+            }
+            print 2;
+            """;
+
+    @Test
+    void interpretTestPrograms() {
+        assertEquals("5", run(InterpretTest.looptest2), "Loop test 2 should eval to 5");
+        assertEquals("5", run(InterpretTest.looptest), "Loop test 1 should eval to 5");
+        assertEquals("6", run(InterpretTest.conditionaltest1), "Conditional test 1 should eval to 6");
+        assertEquals("13", run(InterpretTest.arithmetic2), "Arithmetic test 2 should eval to 13");
+        assertEquals("7", run(InterpretTest.arithmetic1), "Arithmetic test 1 should eval to 7");
+        assertEquals("15\n1\n25", run(InterpretTest.scopetest), "Closures and shadowed variables should resolve lexically");
+        assertEquals("1\ntrue\ntrue", run(InterpretTest.forwardreferencetest), "Local functions should see the local functions declared after them");
+        assertEquals("1\n1\n4\n3", run(InterpretTest.evaloncetest), "Initializers and arguments should be evaluated exactly once");
+        assertEquals("3\nab\n7\nxxx\ntrue", run(InterpretTest.specializetest), "Strings should concatenate with +");
+        assertEquals("42\n10\ntrue", run(InterpretTest.functionvaluetest), "Functions should be values");
+        assertEquals("8\nnull\n9", run(InterpretTest.returntest), "Return should leave loops and blocks");
+        assertEquals("6\n1\n10", run(InterpretTest.inlinecachetest), "Calls should see a reassigned function");
+        assertEquals("0\n10\n3\n1\n10", run(InterpretTest.escapetest), "Loop iterations should capture their own variable");
+        run(InterpretTest.program);
+    }
+
+    @Test
+    void closureTest() {
+        assertEquals(interpret(closuretest), run(closuretest), "VM and interpreter should agree on closures");
+        assertEquals("2\n3", run(closuretest), "Closures should share captured variables with their scope");
+    }
+
+    @Test
+    void topLevelReturnTest() {
+        assertEquals(interpret(toplevelreturntest), run(toplevelreturntest), "VM and interpreter should agree on a return outside of a function");
+        assertEquals("1", run(toplevelreturntest), "Return outside of a function should end the script");
+        assertEquals("1", run("print 1; return 5; print 2;"), "Return outside of a function should end the script");
+    }
+
+    @Test
+    void recursionTest() {
+        assertEquals("6765\n50000\ntrue", run(recursiontest), "Deep recursion should not overflow the Java stack");
+        assertEquals("1000000\nfalse", run(InterpretTest.tailcalltest), "Tail calls should reuse the frame");
+        assertEquals("1000000", run(deeprecursiontest), "Recursion depth should only be limited by the heap");
+    }
+}